@@ -1,6 +1,7 @@
 package accounting;
 
 import java.math.BigDecimal;
+import java.util.Currency;
 import java.util.Objects;
 
 /**
@@ -10,12 +11,20 @@ import java.util.Objects;
 public class Account {
     private String name;
     private AccountType type;
-    private BigDecimal balance;
+    private BigDecimal balance;        // In the functional currency (PHP)
+    private Currency currency;         // The currency the account is kept in
+    private BigDecimal foreignBalance; // In the account's own currency; only used for foreign-currency accounts
 
     public Account(String name, AccountType type) {
+        this(name, type, AccountingEngine.FUNCTIONAL_CURRENCY);
+    }
+
+    public Account(String name, AccountType type, Currency currency) {
         this.name = name;
         this.type = type;
         this.balance = BigDecimal.ZERO;
+        this.currency = currency;
+        this.foreignBalance = BigDecimal.ZERO;
     }
 
     public String getName() {
@@ -30,6 +39,25 @@ public class Account {
         return balance;
     }
 
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    /**
+     * @return True if the account is kept in a currency other than the functional one.
+     */
+    public boolean isForeignCurrency() {
+        return !currency.equals(AccountingEngine.FUNCTIONAL_CURRENCY);
+    }
+
+    /**
+     * Gets the balance in the account's own currency.
+     * Same as getBalance() for functional-currency accounts.
+     */
+    public BigDecimal getForeignBalance() {
+        return isForeignCurrency() ? foreignBalance : balance;
+    }
+
     /**
      * The core accounting logic.
      * Updates the balance based on whether the account is debited or credited.
@@ -37,21 +65,30 @@ public class Account {
      * @param isDebit True if this account is being debited, false if credited.
      */
     public void updateBalance(BigDecimal amount, boolean isDebit) {
+        this.balance = this.balance.add(signedAmount(amount, isDebit));
+    }
+
+    /**
+     * Updates the balance in the account's own currency. Only called for foreign-currency accounts.
+     * @param amount The amount of the transaction in the account's currency.
+     * @param isDebit True if this account is being debited, false if credited.
+     */
+    public void updateForeignBalance(BigDecimal amount, boolean isDebit) {
+        this.foreignBalance = this.foreignBalance.add(signedAmount(amount, isDebit));
+    }
+
+    /**
+     * Gets the effect a debit or credit of the given amount has on this account's balance:
+     * positive if it increases the balance, negative if it decreases it.
+     */
+    public BigDecimal signedAmount(BigDecimal amount, boolean isDebit) {
         // Debits increase Assets and Expenses
         if (type == AccountType.ASSET || type == AccountType.EXPENSE) {
-            if (isDebit) {
-                this.balance = this.balance.add(amount);
-            } else {
-                this.balance = this.balance.subtract(amount);
-            }
+            return isDebit ? amount : amount.negate();
         }
         // Credits increase Liabilities, Equity, and Income
         else {
-            if (isDebit) {
-                this.balance = this.balance.subtract(amount);
-            } else {
-                this.balance = this.balance.add(amount);
-            }
+            return isDebit ? amount.negate() : amount;
         }
     }
 
@@ -9,7 +9,7 @@ import java.util.List;
  */
 public class AccountTableModel extends AbstractTableModel {
     private final List<Account> accounts;
-    private final String[] columnNames = {"Account", "Type", "Balance"};
+    private final String[] columnNames = {"Account", "Type", "Currency", "Balance", "Foreign Balance"};
 
     public AccountTableModel(List<Account> accounts) {
         this.accounts = accounts;
@@ -32,7 +32,7 @@ public class AccountTableModel extends AbstractTableModel {
 
     @Override
     public Class<?> getColumnClass(int columnIndex) {
-        if (columnIndex == 2) {
+        if (columnIndex == 3) {
             return BigDecimal.class; // For correct number alignment
         }
         return String.class;
@@ -47,7 +47,15 @@ public class AccountTableModel extends AbstractTableModel {
             case 1:
                 return account.getType().toString();
             case 2:
-                return account.getBalance();
+                return account.getCurrency().getCurrencyCode();
+            case 3:
+                return account.getBalance(); // In the functional currency
+            case 4:
+                if (!account.isForeignCurrency()) {
+                    return "";
+                }
+                return String.format("%s %,." + account.getCurrency().getDefaultFractionDigits() + "f",
+                        account.getCurrency().getCurrencyCode(), account.getForeignBalance());
             default:
                 return null;
         }
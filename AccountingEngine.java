@@ -1,11 +1,25 @@
 package accounting;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Currency;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Central class to manage the Chart of Accounts and all Transactions.
@@ -13,16 +27,102 @@ import java.util.stream.Collectors;
  */
 public class AccountingEngine {
 
+    /**
+     * The currency the books are kept in. Balances, reports and totals are all in this currency.
+     */
+    public static final Currency FUNCTIONAL_CURRENCY = Currency.getInstance("PHP");
+
     // These lists hold all the application's data
     private final List<Account> chartOfAccounts;
     private final List<Transaction> transactions;
     private final List<JournalEntry> generalJournal;
+    private final List<TransactionListener> listeners;
+
+    // Indexes maintained at posting time, so nothing ever needs a full recompute
+    private final Map<Account, AccountLedger> accountLedgers;
+    private final NavigableMap<LocalDate, List<Transaction>> dateIndex;
+    private final Map<AccountType, BigDecimal> typeTotals;
+
+    // Period close: everything dated up to closedThrough lives in archive files,
+    // summarised in memory by per-account opening balances.
+    private final List<ArchivedPeriod> archivedPeriods;
+    private final Map<Account, BigDecimal> openingBalances;
+    private LocalDate closedThrough;
+    private long nextSequence;
+
+    // Sequences of reversed postings, and of each reversing entry with the one it voids.
+    // Kept apart from the Transaction objects, as copies read back from archives carry no reversal links.
+    private final Set<Long> reversedSequences;
+    private final Map<Long, Long> reversalOfSequences;
+
+    // A read-only engine (e.g. a replication follower) only accepts postings
+    // through applyReplicated(), never through addTransaction().
+    private boolean readOnly;
+
+    // Optional off-heap storage. When set, transactions are kept only in the store
+    // and the heap-based lists and indexes above stay empty.
+    private OffHeapTransactionStore store;
+
+    // Copy-on-write view of the balances, republished after every posting.
+    // Writers are serialized on the engine; readers just read this field.
+    private volatile LedgerSnapshot snapshot;
+
+    // Debit/credit totals per account per day/month/year, for period reports
+    private final PeriodCube periodCube;
+
+    // Hash chain and Merkle tree over every posting, for audits
+    private final MerkleLog merkleLog;
+
+    // Open items and age buckets of the receivables and payables accounts
+    private final Map<Account, AgingSchedule> agingSchedules;
+
+    // Foreign-currency accounts: rates into PHP and their balances as primitive arrays
+    private final ExchangeRates exchangeRates;
+    private final ForeignBalances foreignBalances;
+
+    // Rejects re-delivered postings; created on the first keyed posting
+    private IdempotencyFilter idempotencyFilter;
 
     public AccountingEngine() {
         this.chartOfAccounts = new ArrayList<>();
         this.transactions = new ArrayList<>();
         this.generalJournal = new ArrayList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.accountLedgers = new HashMap<>();
+        this.dateIndex = new TreeMap<>();
+        this.typeTotals = new EnumMap<>(AccountType.class);
+        this.archivedPeriods = new ArrayList<>();
+        this.openingBalances = new HashMap<>();
+        this.reversedSequences = new HashSet<>();
+        this.reversalOfSequences = new HashMap<>();
+        this.periodCube = new PeriodCube();
+        this.merkleLog = new MerkleLog();
+        this.exchangeRates = new ExchangeRates();
+        this.foreignBalances = new ForeignBalances();
+        for (AccountType type : AccountType.values()) {
+            typeTotals.put(type, BigDecimal.ZERO);
+        }
         initializeChartOfAccounts();
+        this.agingSchedules = new HashMap<>();
+        for (String name : new String[] {"Accounts Receivable", "Accounts Payable"}) {
+            AgingSchedule aging = new AgingSchedule(findAccount(name), LocalDate.now());
+            agingSchedules.put(aging.getAccount(), aging);
+        }
+        this.snapshot = LedgerSnapshot.of(chartOfAccounts, 0);
+    }
+
+    /**
+     * Creates an engine that keeps its transactions in an off-heap store.
+     * Heap use then stays flat however many transactions are posted; queries scan
+     * the store through a cursor and only materialize the transactions they return.
+     * Period close is not available in this mode.
+     */
+    public AccountingEngine(OffHeapTransactionStore store) {
+        this();
+        if (store.size() != 0) {
+            throw new IllegalArgumentException("The off-heap store must be empty.");
+        }
+        this.store = store;
     }
 
     /**
@@ -33,12 +133,15 @@ public class AccountingEngine {
         chartOfAccounts.add(new Account("Equipment", AccountType.ASSET));
         chartOfAccounts.add(new Account("Accounts Receivable", AccountType.ASSET));
         chartOfAccounts.add(new Account("Prepaid Expenses", AccountType.ASSET));
+        chartOfAccounts.add(new Account("Cash - USD", AccountType.ASSET, Currency.getInstance("USD")));
+        chartOfAccounts.add(new Account("Cash - JPY", AccountType.ASSET, Currency.getInstance("JPY")));
         chartOfAccounts.add(new Account("Inventory", AccountType.ASSET));
         chartOfAccounts.add(new Account("Accounts Payable", AccountType.LIABILITY));
         chartOfAccounts.add(new Account("Notes Payable", AccountType.LIABILITY));
         chartOfAccounts.add(new Account("Owner's Capital", AccountType.EQUITY));
         chartOfAccounts.add(new Account("Sales Revenue", AccountType.INCOME));
         chartOfAccounts.add(new Account("Service Revenue", AccountType.INCOME));
+        chartOfAccounts.add(new Account("Foreign Exchange Gain (Loss)", AccountType.INCOME));
         chartOfAccounts.add(new Account("Cost of Goods Sold", AccountType.EXPENSE));
         chartOfAccounts.add(new Account("Rent Expense", AccountType.EXPENSE));
         chartOfAccounts.add(new Account("Salaries Expense", AccountType.EXPENSE));
@@ -49,82 +152,1065 @@ public class AccountingEngine {
      * Creates and adds a new transaction.
      * This method updates account balances and the general journal.
      */
-    public void addTransaction(LocalDate date, String description, Account debitAccount, Account creditAccount, BigDecimal amount) {
+    public synchronized void addTransaction(LocalDate date, String description, Account debitAccount, Account creditAccount, BigDecimal amount) {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        post(date, description, debitAccount, creditAccount, amount, null);
+    }
+
+    /**
+     * Creates and adds a new transaction unless one with the same idempotency key was already posted.
+     * Feeds that retry can safely re-deliver entries through this method, within the last
+     * IdempotencyFilter.DEFAULT_WINDOW_SIZE or so keyed postings.
+     * @param idempotencyKey A key that uniquely identifies the entry upstream, or null for none.
+     * @return True if the transaction was posted, false if it was a duplicate and ignored.
+     */
+    public synchronized boolean addTransaction(String idempotencyKey, LocalDate date, String description,
+                                               Account debitAccount, Account creditAccount, BigDecimal amount) {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        if (idempotencyKey == null) {
+            post(date, description, debitAccount, creditAccount, amount, null);
+            return true;
+        }
+        if (idempotencyFilter().isDuplicate(idempotencyKey)) {
+            return false;
+        }
+        post(date, description, debitAccount, creditAccount, amount, null, false, idempotencyKey, null, null, true);
+        idempotencyFilter().record(idempotencyKey);
+        return true;
+    }
+
+    private IdempotencyFilter idempotencyFilter() {
+        if (idempotencyFilter == null) {
+            idempotencyFilter = new IdempotencyFilter();
+        }
+        return idempotencyFilter;
+    }
+
+    /**
+     * Voids a transaction by appending a compensating entry with the debit and credit swapped.
+     * The original stays in the books untouched; only the two accounts it touched are adjusted.
+     * @param original The transaction to reverse.
+     * @param date The date of the reversing entry.
+     * @return The reversing transaction.
+     */
+    public synchronized Transaction reverseTransaction(Transaction original, LocalDate date) {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        checkReversible(original);
+        return post(date, reversalDescription(original), original.getCreditAccount(), original.getDebitAccount(),
+                original.getAmount(), original);
+    }
+
+    /**
+     * Corrects a transaction: reverses the original, then posts the corrected entry.
+     * Both entries are dated with the given date.
+     * Costs the same as two ordinary postings, no matter how old the original is.
+     * @return The corrected transaction.
+     */
+    public synchronized Transaction correctTransaction(Transaction original, LocalDate date, String description,
+                                          Account debitAccount, Account creditAccount, BigDecimal amount) {
+        return correctTransaction(original, date, description, debitAccount, creditAccount, FUNCTIONAL_CURRENCY, amount);
+    }
+
+    /**
+     * Corrects a transaction with an entry in any currency, converted as addTransaction() does.
+     * Both entries are checked before either is posted, so a correction that cannot be
+     * posted leaves the original as it was.
+     * @param currency The currency of the corrected amount.
+     * @param originalAmount The corrected amount in that currency.
+     * @return The corrected transaction.
+     */
+    public synchronized Transaction correctTransaction(Transaction original, LocalDate date, String description,
+                                          Account debitAccount, Account creditAccount,
+                                          Currency currency, BigDecimal originalAmount) {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        checkReversible(original);
+        Currency reversalCurrency = original.isForeignCurrency() ? original.getCurrency() : null;
+        BigDecimal reversalOriginal = reversalCurrency != null ? original.getOriginalAmount() : null;
+        validatePosting(date, reversalDescription(original), original.getCreditAccount(), original.getDebitAccount(),
+                original.getAmount(), reversalCurrency, reversalOriginal, true);
+
+        Currency entryCurrency = currency.equals(FUNCTIONAL_CURRENCY) ? null : currency;
+        BigDecimal entryOriginal = entryCurrency != null ? toMinorUnitScale(entryCurrency, originalAmount) : null;
+        BigDecimal amount = entryCurrency != null
+                ? toFunctional(entryOriginal, exchangeRates.getRate(entryCurrency, date)) : originalAmount;
+        validatePosting(date, description, debitAccount, creditAccount, amount, entryCurrency, entryOriginal, true);
+
+        // Each entry fits on its own; a foreign balance both move must also fit after both
+        checkForeignPair(original, debitAccount, creditAccount, amount, entryOriginal);
+
+        reverseTransaction(original, date);
+        return post(date, description, debitAccount, creditAccount, amount, null, false, null,
+                entryCurrency, entryOriginal, true);
+    }
+
+    private static String reversalDescription(Transaction original) {
+        return "Reversal of #" + original.getSequence() + ": " + original.getDescription();
+    }
+
+    /**
+     * Goes by the original's sequence rather than its links: a copy read back from an
+     * archive, or taken before the reversal, would not show that it was reversed.
+     */
+    private void checkReversible(Transaction original) {
+        long sequence = original.getSequence();
+        if (sequence < 0 || sequence >= nextSequence) {
+            throw new IllegalArgumentException("Transaction #" + sequence + " was not posted in these books.");
+        }
+        if (reversedSequences.contains(sequence)) {
+            throw new IllegalStateException("Transaction #" + sequence + " has already been reversed.");
+        }
+        if (reversalOfSequences.containsKey(sequence)) {
+            throw new IllegalStateException("A reversing entry cannot itself be reversed; post a correction instead.");
+        }
+    }
+
+    /**
+     * Checks the foreign balances that both a reversal and its corrected entry move,
+     * as they will stand after both.
+     */
+    private void checkForeignPair(Transaction original, Account debitAccount, Account creditAccount,
+                                  BigDecimal amount, BigDecimal originalAmount) {
+        for (Account account : new Account[] {original.getDebitAccount(), original.getCreditAccount()}) {
+            if (!account.isForeignCurrency() || (account != debitAccount && account != creditAccount)) {
+                continue;
+            }
+            // The reversal swaps the original's sides
+            BigDecimal foreign = signedOn(account, original.getCreditAccount(), original.getDebitAccount(), original.getOriginalAmount())
+                    .add(signedOn(account, debitAccount, creditAccount, originalAmount));
+            BigDecimal functional = signedOn(account, original.getCreditAccount(), original.getDebitAccount(), original.getAmount())
+                    .add(signedOn(account, debitAccount, creditAccount, amount));
+            foreignBalances.check(account, foreign, functional);
+        }
+    }
+
+    /**
+     * The change an entry makes to one account's balance.
+     */
+    private static BigDecimal signedOn(Account account, Account debitAccount, Account creditAccount, BigDecimal amount) {
+        BigDecimal change = BigDecimal.ZERO;
+        if (debitAccount == account) {
+            change = change.add(account.signedAmount(amount, true));
+        }
+        if (creditAccount == account) {
+            change = change.add(account.signedAmount(amount, false));
+        }
+        return change;
+    }
+
+    /**
+     * Creates and adds a transaction entered in a foreign currency.
+     * The amount is converted into the functional currency at the rate of the transaction date.
+     * An account kept in a foreign currency only accepts entries in that currency.
+     * @param currency The currency of the amount.
+     * @param originalAmount The amount in that currency.
+     */
+    public synchronized void addTransaction(LocalDate date, String description, Account debitAccount, Account creditAccount,
+                                            Currency currency, BigDecimal originalAmount) {
+        if (currency.equals(FUNCTIONAL_CURRENCY)) {
+            addTransaction(date, description, debitAccount, creditAccount, originalAmount);
+            return;
+        }
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        originalAmount = toMinorUnitScale(currency, originalAmount);
+        BigDecimal amount = toFunctional(originalAmount, exchangeRates.getRate(currency, date));
+        post(date, description, debitAccount, creditAccount, amount, null, false, null, currency, originalAmount, true);
+    }
+
+    /**
+     * Brings the balances of all foreign-currency accounts in line with the rates on the given date,
+     * posting the difference of each one against the gain/loss account.
+     * <p>
+     * The new balances are computed in one batched pass over primitive arrays (minor units and
+     * rates as longs), so the cost does not depend on BigDecimal math per account. They are
+     * rounded half-even to the centavo, exactly as each posting is converted, so a balance
+     * revalued at the rate it was booked at comes out the same. The long arithmetic is exact
+     * while the balance in minor units times the rate's digits (as an integer) fits in a long;
+     * an account beyond that is converted with BigDecimal instead, with the same result.
+     * <p>
+     * Every adjusting entry is computed and validated before the first is posted, so if any
+     * account cannot be revalued nothing is posted.
+     * @param gainLossAccount An INCOME account in the functional currency.
+     * @return The adjusting entries, one per account whose balance changed.
+     */
+    public synchronized List<Transaction> revalueForeignBalances(LocalDate date, Account gainLossAccount) {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        if (gainLossAccount.getType() != AccountType.INCOME || gainLossAccount.isForeignCurrency()) {
+            throw new IllegalArgumentException("Exchange differences must go to an INCOME account in " + FUNCTIONAL_CURRENCY + ".");
+        }
+
+        // 1. Each rate as an integer, and the power of ten that turns minor units times
+        // that integer into centavos
+        int count = foreignBalances.count;
+        BigDecimal[] rates = new BigDecimal[count];
+        long[] rateDigits = new long[count];
+        int[] rateShifts = new int[count];
+        boolean[] longRates = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Currency currency = foreignBalances.accounts[i].getCurrency();
+            rates[i] = exchangeRates.getRate(currency, date);
+            rateShifts[i] = currency.getDefaultFractionDigits() + rates[i].scale() - FUNCTIONAL_CURRENCY.getDefaultFractionDigits();
+            longRates[i] = rates[i].unscaledValue().bitLength() < Long.SIZE && Math.abs(rateShifts[i]) < POWERS_OF_TEN.length;
+            rateDigits[i] = longRates[i] ? rates[i].unscaledValue().longValue() : 0;
+        }
+
+        // 2. The batched pass: target functional balance minus the booked one.
+        // Nothing is posted until every account has been converted.
+        long[] foreignUnits = foreignBalances.foreignUnits;
+        long[] functionalUnits = foreignBalances.functionalUnits;
+        long[] adjustments = new long[count];
+        for (int i = 0; i < count; i++) {
+            long target;
+            try {
+                target = longRates[i] ? toFunctionalUnits(foreignUnits[i], rateDigits[i], rateShifts[i]) : bigTarget(i, rates[i]);
+            } catch (ArithmeticException e) {
+                target = bigTarget(i, rates[i]); // Past long arithmetic
+            }
+            try {
+                adjustments[i] = Math.subtractExact(target, functionalUnits[i]);
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("The revaluation of " + foreignBalances.accounts[i].getName() + " at "
+                        + rates[i].toPlainString() + " is beyond 2^63 centavos.", e);
+            }
+        }
+
+        // 3. Work out and check every adjusting entry, then post them. Each account has at
+        // most one, so checking them one by one against the current balances is enough.
+        List<Transaction> pending = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (adjustments[i] == 0) {
+                continue;
+            }
+            Account account = foreignBalances.accounts[i];
+            // Debit the account if the adjustment raises its balance
+            boolean debitAccount = adjustments[i] > 0 == (account.signedAmount(BigDecimal.ONE, true).signum() > 0);
+            Account debit = debitAccount ? account : gainLossAccount;
+            Account credit = debitAccount ? gainLossAccount : account;
+            String description = "Revaluation of " + account.getName() + " at " + rates[i].toPlainString();
+            BigDecimal amount = BigDecimal.valueOf(adjustments[i], 2).abs();
+            validatePosting(date, description, debit, credit, amount, account.getCurrency(), BigDecimal.ZERO, true);
+            Transaction entry = new Transaction(-1, date, description, debit, credit, amount);
+            entry.setOriginalAmount(account.getCurrency(), BigDecimal.ZERO);
+            pending.add(entry);
+        }
+        List<Transaction> entries = new ArrayList<>();
+        for (Transaction entry : pending) {
+            entries.add(post(date, entry.getDescription(), entry.getDebitAccount(), entry.getCreditAccount(), entry.getAmount(),
+                    null, false, null, entry.getCurrency(), BigDecimal.ZERO, true));
+        }
+        return entries;
+    }
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L};
+
+    /**
+     * Minor units times the rate's digits, scaled to centavos and rounded half-even like
+     * toFunctional(). Throws ArithmeticException if the product does not fit in a long.
+     */
+    private static long toFunctionalUnits(long foreignUnits, long rateDigits, int shift) {
+        long product = Math.multiplyExact(foreignUnits, rateDigits);
+        if (shift <= 0) {
+            return Math.multiplyExact(product, POWERS_OF_TEN[-shift]);
+        }
+        long divisor = POWERS_OF_TEN[shift];
+        long quotient = product / divisor;
+        long twiceRemainder = Math.abs(product % divisor) * 2; // Below 2 * 10^18, so no overflow
+        if (twiceRemainder > divisor || (twiceRemainder == divisor && (quotient & 1) != 0)) {
+            quotient += Long.signum(product);
+        }
+        return quotient;
+    }
+
+    /**
+     * The revalued balance of one foreign account in centavos, through BigDecimal.
+     */
+    private long bigTarget(int slot, BigDecimal rate) {
+        Account account = foreignBalances.accounts[slot];
+        int fractionDigits = account.getCurrency().getDefaultFractionDigits();
+        BigDecimal balance = BigDecimal.valueOf(foreignBalances.foreignUnits[slot], fractionDigits);
+        try {
+            return toFunctional(balance, rate).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalStateException("The balance of " + account.getName() + " at " + rate.toPlainString()
+                    + " is beyond 2^63 centavos.");
+        }
+    }
+
+    private static BigDecimal toMinorUnitScale(Currency currency, BigDecimal originalAmount) {
+        if (originalAmount.stripTrailingZeros().scale() > currency.getDefaultFractionDigits()) {
+            throw new IllegalArgumentException(currency.getCurrencyCode() + " amounts have at most "
+                    + currency.getDefaultFractionDigits() + " decimal places.");
+        }
+        return originalAmount.setScale(currency.getDefaultFractionDigits());
+    }
+
+    /**
+     * Converts a foreign amount into the functional currency, rounded to the centavo.
+     */
+    private static BigDecimal toFunctional(BigDecimal originalAmount, BigDecimal rate) {
+        return originalAmount.multiply(rate).setScale(FUNCTIONAL_CURRENCY.getDefaultFractionDigits(), RoundingMode.HALF_EVEN);
+    }
+
+    private static void checkCurrency(Account account, Currency currency) {
+        if (account.isForeignCurrency() && !account.getCurrency().equals(currency)) {
+            throw new IllegalArgumentException(account.getName() + " is kept in " + account.getCurrency().getCurrencyCode()
+                    + "; enter the amount in " + account.getCurrency().getCurrencyCode() + ".");
+        }
+    }
+
+    /**
+     * Marks a posting as cleared, i.e. matched to a line on a bank statement.
+     * Only the flag changes; balances are not affected.
+     */
+    public synchronized void markCleared(Transaction transaction) {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        if (store != null) {
+            throw new UnsupportedOperationException("Reconciliation is not supported with off-heap transaction storage.");
+        }
+        transaction.setCleared(true);
+    }
+
+    /**
+     * Applies a posting received from a replication primary.
+     * Postings must arrive in commit order; a gap means the stream is broken.
+     */
+    synchronized void applyReplicated(long sequence, LocalDate date, String description, Account debitAccount, Account creditAccount,
+                         BigDecimal amount, long reversalOfSequence, boolean closingEntry, String idempotencyKey,
+                         Currency currency, BigDecimal originalAmount) {
+        if (sequence != nextSequence) {
+            throw new IllegalStateException("Out of order replicated posting: expected #" + nextSequence + " but got #" + sequence);
+        }
+        Transaction reversalOf = reversalOfSequence >= 0 ? findTransaction(reversalOfSequence) : null;
+        post(date, description, debitAccount, creditAccount, amount, reversalOf, closingEntry, idempotencyKey,
+                currency, originalAmount, false);
+        if (reversalOfSequence >= 0 && reversalOf == null) {
+            // The original was archived here; still record that it is reversed
+            reversedSequences.add(reversalOfSequence);
+            reversalOfSequences.put(sequence, reversalOfSequence);
+        }
+        if (idempotencyKey != null) {
+            // Keep the filter warm in case this replica is promoted
+            idempotencyFilter().record(idempotencyKey);
+        }
+    }
+
+    private Transaction post(LocalDate date, String description, Account debitAccount, Account creditAccount,
+                             BigDecimal amount, Transaction reversalOf) {
+        // A reversal is made in the same currency as the entry it voids
+        Currency currency = reversalOf != null && reversalOf.isForeignCurrency() ? reversalOf.getCurrency() : null;
+        BigDecimal originalAmount = currency != null ? reversalOf.getOriginalAmount() : null;
+        return post(date, description, debitAccount, creditAccount, amount, reversalOf, false, null,
+                currency, originalAmount, true);
+    }
+
+    /**
+     * The single place where postings are made. All checks run before anything changes,
+     * and the Merkle log takes the posting before anything else does, so a posting either
+     * happens completely (and every listener sees it) or leaves no trace.
+     * @param currency The currency of a foreign-currency entry, or null for the functional currency.
+     * @param originalAmount The amount in that currency; amount is always in the functional currency.
+     */
+    private Transaction post(LocalDate date, String description, Account debitAccount, Account creditAccount,
+                             BigDecimal amount, Transaction reversalOf, boolean closingEntry, String idempotencyKey,
+                             Currency currency, BigDecimal originalAmount, boolean checkPeriod) {
+        // Everything that can fail is checked before the sequence number is taken,
+        // so a rejected posting leaves no trace
+        validatePosting(date, description, debitAccount, creditAccount, amount, currency, originalAmount, checkPeriod);
+
         // 1. Create and add the transaction
-        Transaction newTransaction = new Transaction(date, description, debitAccount, creditAccount, amount);
-        this.transactions.add(newTransaction);
+        Transaction newTransaction = new Transaction(nextSequence, date, description, debitAccount, creditAccount, amount);
+        newTransaction.setClosingEntry(closingEntry);
+        newTransaction.setIdempotencyKey(idempotencyKey);
+        if (currency != null) {
+            newTransaction.setOriginalAmount(currency, originalAmount);
+        }
+        if (reversalOf != null) {
+            newTransaction.setReversalOf(reversalOf);
+        }
+        // The tamper-evidence log goes first: if it cannot take the posting, nothing has changed
+        merkleLog.append(newTransaction);
+        nextSequence++;
+        if (reversalOf != null) {
+            reversalOf.setReversedBy(newTransaction);
+            reversedSequences.add(reversalOf.getSequence());
+            reversalOfSequences.put(newTransaction.getSequence(), reversalOf.getSequence());
+        }
+        if (store != null) {
+            long reversalOfSequence = reversalOf != null ? reversalOf.getSequence() : -1;
+            store.append(date, chartOfAccounts.indexOf(debitAccount), chartOfAccounts.indexOf(creditAccount), amount,
+                    description, reversalOfSequence, reversalOf != null, closingEntry);
+            if (reversalOf != null) {
+                store.markReversed(reversalOfSequence, newTransaction.getSequence());
+            }
+        } else {
+            this.transactions.add(newTransaction);
+        }
+
+        // 2. Update account balances (and the running type totals)
+        updateBalance(debitAccount, amount, true);  // true = isDebit
+        updateBalance(creditAccount, amount, false); // false = isCredit
+        if (debitAccount.isForeignCurrency()) {
+            updateForeignBalance(debitAccount, originalAmount, amount, true);
+        }
+        if (creditAccount.isForeignCurrency()) {
+            updateForeignBalance(creditAccount, originalAmount, amount, false);
+        }
+        snapshot = snapshot.next(debitAccount, creditAccount, typeTotals.get(debitAccount.getType()),
+                typeTotals.get(creditAccount.getType()), getTransactionCount());
+
+        if (store == null) {
+            // 2b. Patch the per-account and date indexes
+            ledgerFor(debitAccount).append(newTransaction, debitAccount.getBalance());
+            ledgerFor(creditAccount).append(newTransaction, creditAccount.getBalance());
+            dateIndex.computeIfAbsent(date, d -> new ArrayList<>()).add(newTransaction);
 
-        // 2. Update account balances
-        debitAccount.updateBalance(amount, true);  // true = isDebit
-        creditAccount.updateBalance(amount, false); // false = isCredit
+            // 3. Create General Journal entries
+            addJournalEntries(newTransaction);
+        }
+
+        // 3b. The engine's own report state. Kept in step here, not by listeners, so a
+        // failure is never swallowed
+        periodCube.transactionPosted(newTransaction);
+        LocalDate today = LocalDate.now();
+        for (AgingSchedule aging : agingSchedules.values()) {
+            aging.rollTo(today); // Daily roll; a no-op within the same day
+            aging.transactionPosted(newTransaction);
+        }
+
+        // 4. Notify outside observers (replication, alerts, ...). The posting is committed by
+        // now, so one failing observer must not keep it from the others.
+        for (TransactionListener listener : listeners) {
+            try {
+                listener.transactionPosted(newTransaction);
+            } catch (RuntimeException e) {
+                System.err.println("Transaction listener failed on posting #" + newTransaction.getSequence() + ": " + e);
+            }
+        }
+        return newTransaction;
+    }
+
+    /**
+     * Checks a posting against the books without changing anything.
+     */
+    private void validatePosting(LocalDate date, String description, Account debitAccount, Account creditAccount,
+                                 BigDecimal amount, Currency currency, BigDecimal originalAmount, boolean checkPeriod) {
+        if (date == null || description == null || amount == null) {
+            throw new IllegalArgumentException("A transaction needs a date, a description and an amount.");
+        }
+        checkInChart(debitAccount);
+        checkInChart(creditAccount);
+        if (checkPeriod && closedThrough != null && !date.isAfter(closedThrough)) {
+            throw new IllegalStateException("The period through " + closedThrough + " is closed.");
+        }
+        checkCurrency(debitAccount, currency);
+        checkCurrency(creditAccount, currency);
+        if (currency != null && store != null) {
+            throw new UnsupportedOperationException("Foreign-currency entries are not supported with off-heap transaction storage.");
+        }
+        if (currency != null && originalAmount == null) {
+            throw new IllegalArgumentException("A foreign-currency entry needs its original amount.");
+        }
+        if (debitAccount.isForeignCurrency()) {
+            foreignBalances.check(debitAccount, debitAccount.signedAmount(originalAmount, true), debitAccount.signedAmount(amount, true));
+        }
+        if (creditAccount.isForeignCurrency()) {
+            foreignBalances.check(creditAccount, creditAccount.signedAmount(originalAmount, false), creditAccount.signedAmount(amount, false));
+        }
+        if (store != null) {
+            store.checkAppendable(date, amount, description);
+        }
+    }
+
+    /**
+     * Only the engine's own Account objects carry its balances; an equal copy does not.
+     */
+    private void checkInChart(Account account) {
+        int index = account == null ? -1 : chartOfAccounts.indexOf(account);
+        if (index < 0 || chartOfAccounts.get(index) != account) {
+            throw new IllegalArgumentException("Unknown account: " + account + " is not in the Chart of Accounts.");
+        }
+    }
+
+    private void addJournalEntries(Transaction tx) {
+        this.generalJournal.add(toJournalEntry(tx, true));
+        this.generalJournal.add(toJournalEntry(tx, false));
+    }
 
-        // 3. Create General Journal entries
+    private static JournalEntry toJournalEntry(Transaction tx, boolean debitLine) {
         // As seen in the video, the date and description are only on the first line (debit)
-        JournalEntry debitEntry = new JournalEntry(date, description, debitAccount.getName(), amount, null);
-        JournalEntry creditEntry = new JournalEntry(null, null, creditAccount.getName(), null, amount);
-        this.generalJournal.add(debitEntry);
-        this.generalJournal.add(creditEntry);
+        if (debitLine) {
+            return new JournalEntry(tx.getDate(), tx.getDescription(), tx.getDebitAccount().getName(), tx.getAmount(), null);
+        }
+        return new JournalEntry(null, null, tx.getCreditAccount().getName(), null, tx.getAmount());
+    }
+
+    /**
+     * Closes the fiscal period ending on the given date.
+     * <p>
+     * The period's INCOME and EXPENSE activity is rolled into the equity account with
+     * closing entries, every transaction dated up to the period end is written to the
+     * archive file, and those transactions are dropped from memory. What remains in
+     * memory is the open period plus one opening balance per account.
+     * No further postings dated inside the closed period are accepted.
+     * The closing entries are only posted once the archive is on disk, so a close that
+     * fails (e.g. on a full disk) leaves the books as they were.
+     *
+     * @param periodEnd The last day of the period to close.
+     * @param equityAccount The EQUITY account that absorbs the period's net income.
+     * @param archiveFile Where to write the period's transactions.
+     * @return The archived period, which can still be queried from disk.
+     */
+    public synchronized ArchivedPeriod closePeriod(LocalDate periodEnd, Account equityAccount, Path archiveFile) throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("This engine is a read-only replica.");
+        }
+        if (store != null) {
+            throw new UnsupportedOperationException("Period close is not supported with off-heap transaction storage.");
+        }
+        if (equityAccount.getType() != AccountType.EQUITY) {
+            throw new IllegalArgumentException("Net income must be closed into an EQUITY account.");
+        }
+        if (closedThrough != null && !periodEnd.isAfter(closedThrough)) {
+            throw new IllegalStateException("The period through " + closedThrough + " is already closed.");
+        }
+        LocalDate periodStart = closedThrough == null ? null : closedThrough.plusDays(1);
+
+        // 1. Roll the period's INCOME and EXPENSE activity into equity
+        Map<Account, BigDecimal> periodActivity = new HashMap<>();
+        for (List<Transaction> day : dateIndex.headMap(periodEnd, true).values()) {
+            for (Transaction tx : day) {
+                accumulateActivity(periodActivity, tx.getDebitAccount(), tx.getAmount(), true);
+                accumulateActivity(periodActivity, tx.getCreditAccount(), tx.getAmount(), false);
+            }
+        }
+        // The closing entries are only worked out and checked here, with the sequences
+        // they will get. Nothing is posted until the archive is safely on disk.
+        List<Transaction> closingEntries = new ArrayList<>();
+        for (Account account : chartOfAccounts) {
+            BigDecimal activity = periodActivity.get(account);
+            if (activity == null || activity.signum() == 0) {
+                continue;
+            }
+            // Bring the account back to where it stood before the period
+            boolean debitAccount = activity.signum() > 0 == (account.getType() == AccountType.INCOME);
+            Account debit = debitAccount ? account : equityAccount;
+            Account credit = debitAccount ? equityAccount : account;
+            String description = "Closing entry: " + account.getName();
+            validatePosting(periodEnd, description, debit, credit, activity.abs(), null, null, false);
+            Transaction entry = new Transaction(nextSequence + closingEntries.size(), periodEnd, description, debit, credit, activity.abs());
+            entry.setClosingEntry(true);
+            closingEntries.add(entry);
+        }
+
+        // 2. Write the period to disk, closing entries included. A failed write leaves no file behind.
+        List<Transaction> archived = new ArrayList<>();
+        for (List<Transaction> day : dateIndex.headMap(periodEnd, true).values()) {
+            archived.addAll(day);
+        }
+        archived.sort((a, b) -> Long.compare(a.getSequence(), b.getSequence()));
+        archived.addAll(closingEntries);
+        ArchivedPeriod period = ArchivedPeriod.write(archiveFile, periodStart, periodEnd, archived);
+
+        try {
+            // Everything before the open period's first posting is archived now: move the
+            // Merkle nodes over it out of memory. They read back the same, so this changes
+            // nothing even if the close goes no further.
+            long firstOpen = nextSequence;
+            for (Transaction tx : transactions) {
+                if (tx.getDate().isAfter(periodEnd)) {
+                    firstOpen = tx.getSequence();
+                    break;
+                }
+            }
+            merkleLog.spillBelow(firstOpen);
+
+            // Post the closing entries; they were checked above and cannot fail now
+            for (Transaction entry : closingEntries) {
+                post(periodEnd, entry.getDescription(), entry.getDebitAccount(), entry.getCreditAccount(), entry.getAmount(),
+                        null, true, null, null, null, false);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archiveFile);
+            throw e;
+        }
+
+        // 3. Freeze the period and replace its transactions with opening balances
+        closedThrough = periodEnd;
+        archivedPeriods.add(period);
+        dateIndex.headMap(periodEnd, true).clear();
+        transactions.removeIf(tx -> !tx.getDate().isAfter(periodEnd));
+        rebuildIndexes();
+        snapshot = snapshot.withTransactionCount(transactions.size());
+        return period;
+    }
+
+    private void accumulateActivity(Map<Account, BigDecimal> activity, Account account, BigDecimal amount, boolean isDebit) {
+        if (account.getType() == AccountType.INCOME || account.getType() == AccountType.EXPENSE) {
+            activity.merge(account, account.signedAmount(amount, isDebit), BigDecimal::add);
+        }
+    }
+
+    /**
+     * Rebuilds the general journal and per-account ledgers from the in-memory
+     * transactions, starting each account from its opening balance.
+     */
+    private void rebuildIndexes() {
+        // Opening balance = current balance minus the effect of what is still in memory
+        Map<Account, BigDecimal> openActivity = new HashMap<>();
+        for (Transaction tx : transactions) {
+            openActivity.merge(tx.getDebitAccount(), tx.getDebitAccount().signedAmount(tx.getAmount(), true), BigDecimal::add);
+            openActivity.merge(tx.getCreditAccount(), tx.getCreditAccount().signedAmount(tx.getAmount(), false), BigDecimal::add);
+        }
+        openingBalances.clear();
+        for (Account account : chartOfAccounts) {
+            openingBalances.put(account, account.getBalance().subtract(openActivity.getOrDefault(account, BigDecimal.ZERO)));
+        }
+
+        accountLedgers.clear();
+        Map<Account, BigDecimal> running = new HashMap<>(openingBalances);
+        generalJournal.clear();
+        for (Transaction tx : transactions) {
+            BigDecimal debitBalance = running.merge(tx.getDebitAccount(), tx.getDebitAccount().signedAmount(tx.getAmount(), true), BigDecimal::add);
+            BigDecimal creditBalance = running.merge(tx.getCreditAccount(), tx.getCreditAccount().signedAmount(tx.getAmount(), false), BigDecimal::add);
+            ledgerFor(tx.getDebitAccount()).append(tx, debitBalance);
+            ledgerFor(tx.getCreditAccount()).append(tx, creditBalance);
+            addJournalEntries(tx);
+        }
+    }
+
+    /**
+     * Finds an in-memory transaction by its sequence number.
+     * @return The transaction, or null if it is unknown or archived.
+     */
+    public Transaction findTransaction(long sequence) {
+        if (store != null) {
+            return sequence >= 0 && sequence < store.size() ? store.get(sequence, chartOfAccounts) : null;
+        }
+        // Transactions are kept in sequence order
+        int low = 0;
+        int high = transactions.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midSequence = transactions.get(mid).getSequence();
+            if (midSequence < sequence) {
+                low = mid + 1;
+            } else if (midSequence > sequence) {
+                high = mid - 1;
+            } else {
+                return transactions.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads up to max postings in sequence order, starting at fromSequence, wherever they
+     * are kept: in memory, in the off-heap store or in period archives. Lets a replication
+     * primary replay old history without keeping all of it in memory itself.
+     */
+    synchronized List<Transaction> getTransactionsFrom(long fromSequence, int max) throws IOException {
+        long to = Math.min(nextSequence, fromSequence + max);
+        List<Transaction> result = new ArrayList<>();
+        if (store != null) {
+            for (long sequence = fromSequence; sequence < to; sequence++) {
+                result.add(store.get(sequence, chartOfAccounts));
+            }
+            return result;
+        }
+        if (fromSequence >= to) {
+            return result;
+        }
+
+        // Open periods: the first in-memory posting at or after fromSequence
+        Map<Long, Transaction> bySequence = new HashMap<>();
+        int low = 0;
+        int high = transactions.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (transactions.get(mid).getSequence() < fromSequence) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < transactions.size() && transactions.get(i).getSequence() < to; i++) {
+            bySequence.put(transactions.get(i).getSequence(), transactions.get(i));
+        }
+        // Closed periods: the rest, from the archive blocks that hold them
+        if (bySequence.size() < to - fromSequence) {
+            for (ArchivedPeriod period : archivedPeriods) {
+                for (Transaction tx : period.getTransactionsBySequence(this, fromSequence, to - 1)) {
+                    bySequence.put(tx.getSequence(), tx);
+                }
+            }
+        }
+        for (long sequence = fromSequence; sequence < to; sequence++) {
+            Transaction tx = bySequence.get(sequence);
+            if (tx == null) {
+                throw new IOException("Posting #" + sequence + " is neither in memory nor in an archive.");
+            }
+            result.add(tx);
+        }
+        return result;
+    }
+
+    /**
+     * @return The sequence of the posting a reversing entry voids, or -1 if it is not a reversal.
+     */
+    synchronized long getReversalOfSequence(long sequence) {
+        Long original = reversalOfSequences.get(sequence);
+        return original != null ? original : -1;
+    }
+
+    private void updateBalance(Account account, BigDecimal amount, boolean isDebit) {
+        BigDecimal before = account.getBalance();
+        account.updateBalance(amount, isDebit);
+        typeTotals.merge(account.getType(), account.getBalance().subtract(before), BigDecimal::add);
+    }
+
+    private void updateForeignBalance(Account account, BigDecimal originalAmount, BigDecimal amount, boolean isDebit) {
+        account.updateForeignBalance(originalAmount, isDebit);
+        foreignBalances.add(account, account.signedAmount(originalAmount, isDebit), account.signedAmount(amount, isDebit));
+    }
+
+    private AccountLedger ledgerFor(Account account) {
+        return accountLedgers.computeIfAbsent(account, a -> new AccountLedger());
+    }
+
+    public void addTransactionListener(TransactionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeTransactionListener(TransactionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public ExchangeRates getExchangeRates() {
+        return exchangeRates;
+    }
+
+    public PeriodCube getPeriodCube() {
+        return periodCube;
+    }
+
+    public MerkleLog getMerkleLog() {
+        return merkleLog;
+    }
+
+    /**
+     * Gets the aging of a receivables or payables account, rolled forward to today so
+     * its buckets are current even if nothing has been posted since the day changed.
+     * @return The aging schedule, or null if the account is not aged.
+     */
+    public AgingSchedule getAgingSchedule(Account account) {
+        AgingSchedule aging = agingSchedules.get(account);
+        if (aging != null) {
+            aging.rollTo(LocalDate.now());
+        }
+        return aging;
+    }
+
+    /**
+     * Checks that the postings dated within a period still match a trusted Merkle root,
+     * and that none has gone missing or been redated out of the period. The log proves
+     * which postings must be shown and that every subtree left out is dated wholly
+     * outside the period. Postings are committed roughly in date order, so the cost is
+     * the period's postings, a few neighbours at its edges and O(log n) proof nodes,
+     * independent of the size of the rest of the history.
+     * Postings of closed periods are read back from their archives.
+     * @param treeSize How many postings the log held when the root was taken. Postings
+     *                 made since, such as a closing entry, are not part of the check.
+     * @return True if the period's postings under that root are exactly those on record.
+     */
+    public synchronized boolean verifyPeriod(LocalDate from, LocalDate to, long treeSize, byte[] trustedRoot) throws IOException {
+        if (treeSize < 0 || treeSize > merkleLog.size()) {
+            return false; // Not a size this log has had
+        }
+        MerkleLog.PeriodProof proof = merkleLog.provePeriod(from, to, treeSize);
+        List<Transaction> postings = new ArrayList<>(proof.getSequences().size());
+        Map<Long, Transaction> archived = null;
+        for (long sequence : proof.getSequences()) {
+            Transaction tx = findTransaction(sequence);
+            if (tx == null) {
+                if (archived == null) {
+                    archived = readArchives(proof.getSequences());
+                }
+                tx = archived.get(sequence);
+            }
+            if (tx == null) {
+                return false; // A posting has gone missing
+            }
+            postings.add(tx);
+        }
+        return MerkleLog.verifyPeriod(from, to, postings, treeSize, proof.getNodes(), trustedRoot);
+    }
+
+    /**
+     * Reads the archived postings among the given sequences (ascending), by sequence.
+     */
+    private Map<Long, Transaction> readArchives(List<Long> sequences) throws IOException {
+        long first = sequences.get(0);
+        long last = sequences.get(sequences.size() - 1);
+        Map<Long, Transaction> archived = new HashMap<>();
+        for (ArchivedPeriod period : archivedPeriods) {
+            for (Transaction tx : period.getTransactionsBySequence(this, first, last)) {
+                archived.put(tx.getSequence(), tx);
+            }
+        }
+        return archived;
+    }
+
+    // --- Period Close ---
+
+    /**
+     * @return The last day of the most recently closed period, or null if nothing is closed.
+     */
+    public LocalDate getClosedThrough() {
+        return closedThrough;
+    }
+
+    public List<ArchivedPeriod> getArchivedPeriods() {
+        return Collections.unmodifiableList(archivedPeriods);
+    }
+
+    /**
+     * Gets an account's balance at the start of the open period.
+     */
+    public BigDecimal getOpeningBalance(Account account) {
+        return openingBalances.getOrDefault(account, BigDecimal.ZERO);
     }
 
     // --- Data Access Methods for UI ---
 
+    /**
+     * Gets a consistent, point-in-time view of all balances.
+     * Never blocks, even while another thread is posting.
+     */
+    public LedgerSnapshot snapshot() {
+        return snapshot;
+    }
+
     public List<Account> getChartOfAccounts() {
         return Collections.unmodifiableList(chartOfAccounts);
     }
 
     public List<Transaction> getTransactions() {
+        if (store != null) {
+            return store.asList(chartOfAccounts);
+        }
         return Collections.unmodifiableList(transactions);
     }
 
     public List<JournalEntry> getGeneralJournal() {
+        if (store != null) {
+            // Two lines per stored transaction, built only for the rows actually read
+            List<Transaction> storedTransactions = store.asList(chartOfAccounts);
+            return new AbstractList<JournalEntry>() {
+                @Override
+                public JournalEntry get(int index) {
+                    return toJournalEntry(storedTransactions.get(index / 2), index % 2 == 0);
+                }
+
+                @Override
+                public int size() {
+                    return storedTransactions.size() * 2;
+                }
+            };
+        }
         return Collections.unmodifiableList(generalJournal);
     }
 
+    /**
+     * @return The number of transactions currently held by the engine.
+     */
+    public long getTransactionCount() {
+        return store != null ? store.size() : transactions.size();
+    }
+
+    /**
+     * Looks up an account in the Chart of Accounts by its name.
+     * @return The account, or null if there is no account with that name.
+     */
+    public Account findAccount(String name) {
+        for (Account account : chartOfAccounts) {
+            if (account.getName().equals(name)) {
+                return account;
+            }
+        }
+        return null;
+    }
+
     /**
      * Gets all transactions for a specific account.
-     * Used by the General Ledger.
+     * Used by the General Ledger. With off-heap storage this is a read-only view that
+     * materializes only the rows read.
+     */
+    public synchronized List<Transaction> getTransactionsForAccount(Account account) {
+        if (store != null) {
+            return store.asAccountList(chartOfAccounts.indexOf(account), chartOfAccounts);
+        }
+        AccountLedger ledger = accountLedgers.get(account);
+        return ledger == null ? new ArrayList<>() : new ArrayList<>(ledger.postings);
+    }
+
+    /**
+     * Gets the account's balance after each of its postings, in the same order
+     * as getTransactionsForAccount(). Maintained at posting time; with off-heap
+     * storage, computed for the rows read from checkpoints kept at posting time.
+     */
+    public synchronized List<BigDecimal> getRunningBalancesForAccount(Account account) {
+        if (store != null) {
+            return store.asRunningBalanceList(chartOfAccounts.indexOf(account), chartOfAccounts);
+        }
+        AccountLedger ledger = accountLedgers.get(account);
+        return ledger == null ? new ArrayList<>() : new ArrayList<>(ledger.runningBalances);
+    }
+
+    /**
+     * Gets all transactions dated between two dates (inclusive), ordered by date.
      */
-    public List<Transaction> getTransactionsForAccount(Account account) {
-        return transactions.stream()
-                .filter(t -> t.getDebitAccount().equals(account) || t.getCreditAccount().equals(account))
-                .collect(Collectors.toList());
+    public List<Transaction> getTransactionsBetween(LocalDate from, LocalDate to) {
+        List<Transaction> result = new ArrayList<>();
+        if (store != null) {
+            long fromDay = from.toEpochDay();
+            long toDay = to.toEpochDay();
+            OffHeapTransactionStore.Cursor cursor = store.cursor();
+            for (long i = 0; i < store.size(); i++) {
+                cursor.moveTo(i);
+                if (cursor.getEpochDay() >= fromDay && cursor.getEpochDay() <= toDay) {
+                    result.add(cursor.toTransaction(chartOfAccounts));
+                }
+            }
+            result.sort((a, b) -> a.getDate().compareTo(b.getDate()));
+            return result;
+        }
+        for (List<Transaction> day : dateIndex.subMap(from, true, to, true).values()) {
+            result.addAll(day);
+        }
+        return result;
     }
 
     // --- Calculation Methods for Balance Sheet ---
 
+    /**
+     * Gets the total balance of all accounts of a type. Maintained at posting time.
+     */
+    public BigDecimal getTotal(AccountType type) {
+        return typeTotals.get(type);
+    }
+
     public BigDecimal getTotalAssets() {
-        return chartOfAccounts.stream()
-                .filter(a -> a.getType() == AccountType.ASSET)
-                .map(Account::getBalance)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return getTotal(AccountType.ASSET);
     }
 
     public BigDecimal getTotalLiabilities() {
-        return chartOfAccounts.stream()
-                .filter(a -> a.getType() == AccountType.LIABILITY)
-                .map(Account::getBalance)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return getTotal(AccountType.LIABILITY);
     }
 
     public BigDecimal getTotalEquity() {
         // A proper system would roll up Income/Expense into Retained Earnings.
         // For simplicity, we just sum Equity accounts (e.g., Owner's Capital).
         // Note: Income increases equity, Expenses decrease it.
-        BigDecimal equity = chartOfAccounts.stream()
-                .filter(a -> a.getType() == AccountType.EQUITY)
-                .map(Account::getBalance)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal income = chartOfAccounts.stream()
-                .filter(a -> a.getType() == AccountType.INCOME)
-                .map(Account::getBalance)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal expense = chartOfAccounts.stream()
-                .filter(a -> a.getType() == AccountType.EXPENSE)
-                .map(Account::getBalance)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal equity = getTotal(AccountType.EQUITY);
+        BigDecimal income = getTotal(AccountType.INCOME);
+        BigDecimal expense = getTotal(AccountType.EXPENSE);
 
         // Equity = Equity + Income - Expense
         return equity.add(income).subtract(expense);
     }
-}
 
+    /**
+     * The postings of a single account, with the balance after each one.
+     */
+    private static class AccountLedger {
+        private final List<Transaction> postings = new ArrayList<>();
+        private final List<BigDecimal> runningBalances = new ArrayList<>();
+
+        void append(Transaction tx, BigDecimal balanceAfter) {
+            postings.add(tx);
+            runningBalances.add(balanceAfter);
+        }
+    }
+
+    /**
+     * The balances of the foreign-currency accounts as primitive arrays, kept in step
+     * with every posting so a revaluation is one pass over arrays.
+     */
+    private static class ForeignBalances {
+        private Account[] accounts = new Account[0];
+        private long[] foreignUnits = new long[0];    // In minor units of the account's currency (cents, yen)
+        private long[] functionalUnits = new long[0]; // In centavos
+        private final Map<Account, Integer> slots = new HashMap<>();
+        private int count;
+
+        void add(Account account, BigDecimal foreignAmount, BigDecimal functionalAmount) {
+            int slot = slotOf(account);
+            foreignUnits[slot] += toUnits(account, foreignAmount, account.getCurrency());
+            functionalUnits[slot] += toUnits(account, functionalAmount, FUNCTIONAL_CURRENCY);
+        }
+
+        /**
+         * Throws if the amounts would not fit the arrays, without changing anything.
+         */
+        void check(Account account, BigDecimal foreignAmount, BigDecimal functionalAmount) {
+            Integer slot = slots.get(account);
+            long foreignAfter = toUnits(account, foreignAmount, account.getCurrency());
+            long functionalAfter = toUnits(account, functionalAmount, FUNCTIONAL_CURRENCY);
+            try {
+                Math.addExact(slot == null ? 0 : foreignUnits[slot], foreignAfter);
+                Math.addExact(slot == null ? 0 : functionalUnits[slot], functionalAfter);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("The balance of " + account.getName() + " would overflow.");
+            }
+        }
+
+        private static long toUnits(Account account, BigDecimal amount, Currency currency) {
+            try {
+                return amount.movePointRight(currency.getDefaultFractionDigits()).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Amount " + amount.toPlainString() + " is too large or too precise for "
+                        + account.getName() + " (whole " + currency.getCurrencyCode() + " minor units up to 2^63).");
+            }
+        }
+
+        private int slotOf(Account account) {
+            Integer slot = slots.get(account);
+            if (slot != null) {
+                return slot;
+            }
+            if (count == accounts.length) {
+                int capacity = Math.max(8, count * 2);
+                accounts = Arrays.copyOf(accounts, capacity);
+                foreignUnits = Arrays.copyOf(foreignUnits, capacity);
+                functionalUnits = Arrays.copyOf(functionalUnits, capacity);
+            }
+            accounts[count] = account;
+            slots.put(account, count);
+            return count++;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Aging of one receivables or payables account, maintained as transactions are posted.
+ * <p>
+ * Postings that increase the balance open items (invoices); postings that decrease it
+ * settle the oldest open items first. Open items are kept summed per invoice date, and
+ * the 0-30 / 31-60 / 61-90 / over 90 days totals are kept as of a report date. A report
+ * therefore costs nothing however many invoices are open. Rolling the report date
+ * forward only moves the dates that cross a bucket boundary, about one per boundary
+ * per day rolled.
+ */
+public class AgingSchedule implements TransactionListener {
+
+    /**
+     * The age ranges, in days since the invoice date.
+     */
+    public enum Bucket {
+        CURRENT("0-30", 30),
+        DAYS_31_60("31-60", 60),
+        DAYS_61_90("61-90", 90),
+        OVER_90("Over 90", Long.MAX_VALUE);
+
+        private final String label;
+        private final long maxAge;
+
+        Bucket(String label, long maxAge) {
+            this.label = label;
+            this.maxAge = maxAge;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+
+        static Bucket forAge(long ageInDays) {
+            for (Bucket bucket : values()) {
+                if (ageInDays <= bucket.maxAge) {
+                    return bucket;
+                }
+            }
+            return OVER_90;
+        }
+    }
+
+    // Oldest age whose bucket can change when the report date moves
+    private static final long LAST_BOUNDARY = Bucket.DAYS_61_90.maxAge + 1;
+
+    private final Account account;
+    private final NavigableMap<LocalDate, BigDecimal> openItems; // Open amount per invoice date
+    private final BigDecimal[] bucketTotals;
+    private BigDecimal unappliedCredit; // Settlements in excess of everything open
+    private LocalDate asOf;
+
+    /**
+     * @param account The receivables or payables account to age.
+     * @param asOf The report date the buckets start out at.
+     */
+    public AgingSchedule(Account account, LocalDate asOf) {
+        this.account = account;
+        this.openItems = new TreeMap<>();
+        this.bucketTotals = new BigDecimal[Bucket.values().length];
+        Arrays.fill(bucketTotals, BigDecimal.ZERO);
+        this.unappliedCredit = BigDecimal.ZERO;
+        this.asOf = asOf;
+    }
+
+    @Override
+    public synchronized void transactionPosted(Transaction transaction) {
+        if (transaction.getDebitAccount().equals(account)) {
+            apply(transaction, account.signedAmount(transaction.getAmount(), true));
+        }
+        if (transaction.getCreditAccount().equals(account)) {
+            apply(transaction, account.signedAmount(transaction.getAmount(), false));
+        }
+    }
+
+    private void apply(Transaction transaction, BigDecimal change) {
+        if (change.signum() > 0) {
+            open(transaction.getDate(), change);
+        } else if (change.signum() < 0) {
+            BigDecimal remaining = change.negate();
+            if (transaction.getReversalOf() != null) {
+                // Taking back an invoice closes that invoice, not the oldest one
+                remaining = settle(transaction.getReversalOf().getDate(), remaining);
+            }
+            settleOldestFirst(remaining);
+        }
+    }
+
+    /**
+     * Adds an invoice, first using up any unapplied credit.
+     */
+    private void open(LocalDate date, BigDecimal amount) {
+        if (unappliedCredit.signum() > 0) {
+            BigDecimal used = unappliedCredit.min(amount);
+            unappliedCredit = unappliedCredit.subtract(used);
+            amount = amount.subtract(used);
+            if (amount.signum() == 0) {
+                return;
+            }
+        }
+        openItems.merge(date, amount, BigDecimal::add);
+        addToBucket(date, amount);
+    }
+
+    private void settleOldestFirst(BigDecimal amount) {
+        while (amount.signum() > 0 && !openItems.isEmpty()) {
+            amount = settle(openItems.firstKey(), amount);
+        }
+        if (amount.signum() > 0) {
+            unappliedCredit = unappliedCredit.add(amount);
+        }
+    }
+
+    /**
+     * Settles what is open on one invoice date, up to the given amount.
+     * @return The part of the amount that is left over.
+     */
+    private BigDecimal settle(LocalDate date, BigDecimal amount) {
+        BigDecimal open = openItems.get(date);
+        if (open == null) {
+            return amount;
+        }
+        BigDecimal settled = open.min(amount);
+        if (settled.compareTo(open) == 0) {
+            openItems.remove(date);
+        } else {
+            openItems.put(date, open.subtract(settled));
+        }
+        addToBucket(date, settled.negate());
+        return amount.subtract(settled);
+    }
+
+    private void addToBucket(LocalDate date, BigDecimal amount) {
+        int index = bucketFor(date, asOf).ordinal();
+        bucketTotals[index] = bucketTotals[index].add(amount);
+    }
+
+    private static Bucket bucketFor(LocalDate date, LocalDate asOf) {
+        return Bucket.forAge(Math.max(ChronoUnit.DAYS.between(date, asOf), 0));
+    }
+
+    /**
+     * Moves the report date, shifting open items between buckets. The engine rolls its
+     * schedules to today on every posting and every read. Only invoice dates whose bucket differs between the old and
+     * the new report date are visited, so a one-day roll touches a handful of dates.
+     */
+    public synchronized void rollTo(LocalDate newAsOf) {
+        if (newAsOf.equals(asOf)) {
+            return;
+        }
+        // Dates younger than 31 days on both report dates stay current; dates older
+        // than 90 days on both stay over 90. Only the dates in between can move.
+        LocalDate earlier = asOf.isBefore(newAsOf) ? asOf : newAsOf;
+        LocalDate later = asOf.isBefore(newAsOf) ? newAsOf : asOf;
+        LocalDate from = earlier.minusDays(LAST_BOUNDARY);
+        LocalDate to = later.minusDays(Bucket.CURRENT.maxAge + 1);
+        for (Map.Entry<LocalDate, BigDecimal> item : openItems.subMap(from, false, to, true).entrySet()) {
+            Bucket before = bucketFor(item.getKey(), asOf);
+            Bucket after = bucketFor(item.getKey(), newAsOf);
+            if (before != after) {
+                bucketTotals[before.ordinal()] = bucketTotals[before.ordinal()].subtract(item.getValue());
+                bucketTotals[after.ordinal()] = bucketTotals[after.ordinal()].add(item.getValue());
+            }
+        }
+        asOf = newAsOf;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public synchronized LocalDate getAsOf() {
+        return asOf;
+    }
+
+    /**
+     * Gets the total open in one age range as of the report date.
+     */
+    public synchronized BigDecimal getTotal(Bucket bucket) {
+        return bucketTotals[bucket.ordinal()];
+    }
+
+    /**
+     * Gets the total of all open items. Less the unapplied credit, this is the account's balance.
+     */
+    public synchronized BigDecimal getOpenTotal() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (BigDecimal bucketTotal : bucketTotals) {
+            total = total.add(bucketTotal);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the settlements (e.g. customer overpayments) not yet matched to any invoice.
+     */
+    public synchronized BigDecimal getUnappliedCredit() {
+        return unappliedCredit;
+    }
+
+    /**
+     * Gets the open amount per invoice date, oldest first.
+     */
+    public synchronized NavigableMap<LocalDate, BigDecimal> getOpenItems() {
+        return Collections.unmodifiableNavigableMap(new TreeMap<>(openItems));
+    }
+}
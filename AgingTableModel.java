@@ -0,0 +1,61 @@
+package accounting;
+
+import javax.swing.table.AbstractTableModel;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Connects the aging schedules of the receivables and payables accounts to the JTable on the "Aging" tab.
+ */
+public class AgingTableModel extends AbstractTableModel {
+    private final List<AgingSchedule> schedules;
+    private final String[] columnNames = {"Account", "0-30", "31-60", "61-90", "Over 90", "Total"};
+
+    public AgingTableModel(List<AgingSchedule> schedules) {
+        this.schedules = schedules;
+    }
+
+    @Override
+    public int getRowCount() {
+        return schedules.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        if (columnIndex > 0) {
+            return BigDecimal.class; // For correct number alignment
+        }
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        AgingSchedule schedule = schedules.get(rowIndex);
+        switch (columnIndex) {
+            case 0:
+                return schedule.getAccount().getName();
+            case 1:
+                return schedule.getTotal(AgingSchedule.Bucket.CURRENT);
+            case 2:
+                return schedule.getTotal(AgingSchedule.Bucket.DAYS_31_60);
+            case 3:
+                return schedule.getTotal(AgingSchedule.Bucket.DAYS_61_90);
+            case 4:
+                return schedule.getTotal(AgingSchedule.Bucket.OVER_90);
+            case 5:
+                return schedule.getOpenTotal();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package accounting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A closed fiscal period whose transactions live in an archive file.
+ * Nothing is kept in memory except the file location and the period bounds;
+ * transactions are read back from disk on demand.
+ * The file is in the compact block format of TransactionArchive, so a query for
+ * part of the period only reads the blocks dated within it.
+ */
+public class ArchivedPeriod {
+
+    private final Path file;
+    private final LocalDate startDate; // Null for the first period ever closed
+    private final LocalDate endDate;
+    private final int transactionCount;
+
+    private ArchivedPeriod(Path file, LocalDate startDate, LocalDate endDate, int transactionCount) {
+        this.file = file;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.transactionCount = transactionCount;
+    }
+
+    /**
+     * Writes the period's transactions to the archive file. They are written to a
+     * temporary file first and moved into place, so a failed write leaves no archive.
+     */
+    static ArchivedPeriod write(Path file, LocalDate startDate, LocalDate endDate, List<Transaction> transactions) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            TransactionArchive.write(tempFile, transactions);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return new ArchivedPeriod(file, startDate, endDate, transactions.size());
+    }
+
+    /**
+     * Reads the period's transactions back from disk.
+     * @param engine The engine whose Chart of Accounts the transactions refer to.
+     */
+    public List<Transaction> getTransactions(AccountingEngine engine) throws IOException {
+        return TransactionArchive.open(file).read(engine);
+    }
+
+    /**
+     * Reads the archived transactions dated between from and to (inclusive) back from disk.
+     */
+    public List<Transaction> getTransactionsBetween(AccountingEngine engine, LocalDate from, LocalDate to) throws IOException {
+        return TransactionArchive.open(file).read(engine, from, to);
+    }
+
+    /**
+     * Reads the archived transactions with sequences between fromSequence and toSequence (inclusive) back from disk.
+     */
+    public List<Transaction> getTransactionsBySequence(AccountingEngine engine, long fromSequence, long toSequence) throws IOException {
+        return TransactionArchive.open(file).readSequences(engine, fromSequence, toSequence);
+    }
+
+    /**
+     * Reads the archived transactions for a single account back from disk.
+     */
+    public List<Transaction> getTransactionsForAccount(AccountingEngine engine, Account account) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        TransactionArchive.open(file).scan(engine, null, null, tx -> {
+            if (tx.getDebitAccount().equals(account) || tx.getCreditAccount().equals(account)) {
+                result.add(tx);
+            }
+        });
+        return result;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+}
+
@@ -0,0 +1,14 @@
+package accounting;
+
+/**
+ * Callback interface for standing balance alerts.
+ * Alerts are delivered on the BalanceAlerts delivery thread, never on the posting thread.
+ */
+public interface BalanceAlertListener {
+
+    /**
+     * Called once each time a rule is breached.
+     * @param alert What was breached, by which posting, and the value at that moment.
+     */
+    void alertRaised(BalanceAlerts.Alert alert);
+}
@@ -0,0 +1,319 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Standing alerts on account balances and type totals, such as "Cash below 50,000"
+ * or "Accounts Payable above the credit limit", checked as each posting is made.
+ * <p>
+ * Rules are indexed by the account (or account type) they watch, so a posting only
+ * evaluates the rules of the two accounts it touched and of their two types. The cost
+ * of a posting does not depend on how many rules exist on other accounts, and no
+ * balance is ever polled, so short spikes are not missed.
+ * <p>
+ * Rules are edge-triggered: a rule fires when its condition becomes true and not
+ * again until it has cleared. Fired alerts are handed to the listeners on a separate
+ * delivery thread, so a slow listener never holds up posting.
+ */
+public class BalanceAlerts implements TransactionListener {
+
+    private final AccountingEngine engine;
+    private final Map<Account, List<Rule>> accountRules;
+    private final Map<AccountType, List<Rule>> typeRules;
+    private final List<BalanceAlertListener> listeners;
+    private final ExecutorService delivery;
+
+    /**
+     * Starts watching the engine's postings.
+     */
+    public BalanceAlerts(AccountingEngine engine) {
+        this.engine = engine;
+        this.accountRules = new HashMap<>();
+        this.typeRules = new EnumMap<>(AccountType.class);
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.delivery = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "balance-alerts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        engine.addTransactionListener(this);
+    }
+
+    public void addAlertListener(BalanceAlertListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeAlertListener(BalanceAlertListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers a rule. A rule whose condition already holds does not fire until it has cleared once.
+     */
+    public synchronized void addRule(Rule rule) {
+        rule.reset(currentValue(rule));
+        if (rule.account != null) {
+            accountRules.computeIfAbsent(rule.account, a -> new ArrayList<>()).add(rule);
+        } else {
+            typeRules.computeIfAbsent(rule.type, t -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    public synchronized void removeRule(Rule rule) {
+        List<Rule> rules = rule.account != null ? accountRules.get(rule.account) : typeRules.get(rule.type);
+        if (rules != null) {
+            rules.remove(rule);
+        }
+    }
+
+    @Override
+    public synchronized void transactionPosted(Transaction transaction) {
+        long now = System.currentTimeMillis();
+        Account debit = transaction.getDebitAccount();
+        Account credit = transaction.getCreditAccount();
+
+        evaluate(accountRules.get(debit), debit.getBalance(), transaction, now);
+        evaluate(accountRules.get(credit), credit.getBalance(), transaction, now);
+        evaluate(typeRules.get(debit.getType()), engine.getTotal(debit.getType()), transaction, now);
+        if (credit.getType() != debit.getType()) {
+            evaluate(typeRules.get(credit.getType()), engine.getTotal(credit.getType()), transaction, now);
+        }
+    }
+
+    private void evaluate(List<Rule> rules, BigDecimal value, Transaction transaction, long now) {
+        if (rules == null) {
+            return;
+        }
+        for (Rule rule : rules) {
+            if (rule.update(value, now)) {
+                Alert alert = new Alert(rule, value, transaction, now);
+                delivery.execute(() -> deliver(alert));
+            }
+        }
+    }
+
+    private void deliver(Alert alert) {
+        for (BalanceAlertListener listener : listeners) {
+            try {
+                listener.alertRaised(alert);
+            } catch (RuntimeException e) {
+                System.err.println("Balance alert listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private BigDecimal currentValue(Rule rule) {
+        return rule.account != null ? rule.account.getBalance() : engine.getTotal(rule.type);
+    }
+
+    /**
+     * Stops watching the engine. Alerts already fired are still delivered.
+     */
+    public void close() {
+        engine.removeTransactionListener(this);
+        delivery.shutdown();
+    }
+
+    /**
+     * A standing condition on one account's balance or one type total.
+     * Create rules with the static factory methods.
+     */
+    public static class Rule {
+        private final Account account;   // Either account ...
+        private final AccountType type;  // ... or type is set
+        private final BigDecimal limit;
+        private final int direction;     // -1: fires below the limit / on a drop, +1: above / on a rise
+        private final long windowMillis; // Zero for a threshold rule
+
+        // Evaluation state, guarded by the owning BalanceAlerts
+        private boolean breached;
+        private BigDecimal lastValue;
+        // Rate rules: the values held within the window, thinned to those that can still be the
+        // extreme (highest for a drop, lowest for a rise), so the front is always the baseline
+        private final Deque<Sample> baselines = new ArrayDeque<>();
+
+        private Rule(Account account, AccountType type, BigDecimal limit, int direction, long windowMillis) {
+            this.account = account;
+            this.type = type;
+            this.limit = limit;
+            this.direction = direction;
+            this.windowMillis = windowMillis;
+        }
+
+        /**
+         * Fires when the account's balance falls below the limit.
+         */
+        public static Rule below(Account account, BigDecimal limit) {
+            return new Rule(account, null, limit, -1, 0);
+        }
+
+        /**
+         * Fires when the account's balance rises above the limit.
+         */
+        public static Rule above(Account account, BigDecimal limit) {
+            return new Rule(account, null, limit, 1, 0);
+        }
+
+        /**
+         * Fires when the total of all accounts of a type falls below the limit.
+         */
+        public static Rule below(AccountType type, BigDecimal limit) {
+            return new Rule(null, type, limit, -1, 0);
+        }
+
+        /**
+         * Fires when the total of all accounts of a type rises above the limit.
+         */
+        public static Rule above(AccountType type, BigDecimal limit) {
+            return new Rule(null, type, limit, 1, 0);
+        }
+
+        /**
+         * Fires when the account's balance drops by more than the given amount within the window.
+         */
+        public static Rule dropWithin(Account account, BigDecimal amount, Duration window) {
+            return new Rule(account, null, amount, -1, window.toMillis());
+        }
+
+        /**
+         * Fires when the account's balance rises by more than the given amount within the window.
+         */
+        public static Rule riseWithin(Account account, BigDecimal amount, Duration window) {
+            return new Rule(account, null, amount, 1, window.toMillis());
+        }
+
+        /**
+         * Fires when the type total drops by more than the given amount within the window.
+         */
+        public static Rule dropWithin(AccountType type, BigDecimal amount, Duration window) {
+            return new Rule(null, type, amount, -1, window.toMillis());
+        }
+
+        /**
+         * Fires when the type total rises by more than the given amount within the window.
+         */
+        public static Rule riseWithin(AccountType type, BigDecimal amount, Duration window) {
+            return new Rule(null, type, amount, 1, window.toMillis());
+        }
+
+        private void reset(BigDecimal value) {
+            baselines.clear();
+            lastValue = value;
+            breached = windowMillis == 0 && isBeyondLimit(value);
+        }
+
+        /**
+         * Takes in the value after a posting. Amortized O(1), also for rate rules.
+         * @return True if the rule has just become breached.
+         */
+        private boolean update(BigDecimal value, long now) {
+            boolean wasBreached = breached;
+            if (windowMillis == 0) {
+                breached = isBeyondLimit(value);
+            } else {
+                // The value before this posting was held until now
+                Sample held = new Sample(now, lastValue);
+                while (!baselines.isEmpty() && baselines.peekLast().value.compareTo(held.value) * direction >= 0) {
+                    baselines.removeLast();
+                }
+                baselines.addLast(held);
+                while (now - baselines.peekFirst().millis >= windowMillis) {
+                    baselines.removeFirst();
+                }
+                Sample baseline = baselines.peekFirst();
+                breached = baseline != null && isBeyondLimit(value.subtract(baseline.value));
+            }
+            lastValue = value;
+            return breached && !wasBreached;
+        }
+
+        /**
+         * For a threshold rule the value is the balance; for a rate rule it is the change,
+         * which must exceed the limit in the watched direction.
+         */
+        private boolean isBeyondLimit(BigDecimal value) {
+            BigDecimal bound = windowMillis > 0 && direction < 0 ? limit.negate() : limit;
+            return value.compareTo(bound) * direction > 0;
+        }
+
+        /**
+         * @return A readable description, e.g. "Cash below 50000".
+         */
+        @Override
+        public String toString() {
+            String subject = account != null ? account.getName() : "Total " + type;
+            if (windowMillis == 0) {
+                return subject + (direction < 0 ? " below " : " above ") + limit.toPlainString();
+            }
+            return subject + (direction < 0 ? " dropped by more than " : " rose by more than ")
+                    + limit.toPlainString() + " within " + Duration.ofMillis(windowMillis);
+        }
+    }
+
+    /**
+     * A balance and the time it was seen, for rate-of-change rules.
+     */
+    private static class Sample {
+        private final long millis;
+        private final BigDecimal value;
+
+        Sample(long millis, BigDecimal value) {
+            this.millis = millis;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A fired rule.
+     */
+    public static class Alert {
+        private final Rule rule;
+        private final BigDecimal value;
+        private final Transaction transaction;
+        private final long timeMillis;
+
+        Alert(Rule rule, BigDecimal value, Transaction transaction, long timeMillis) {
+            this.rule = rule;
+            this.value = value;
+            this.transaction = transaction;
+            this.timeMillis = timeMillis;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        /**
+         * @return The balance or type total right after the posting.
+         */
+        public BigDecimal getValue() {
+            return value;
+        }
+
+        /**
+         * @return The posting that breached the rule.
+         */
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public String getMessage() {
+            return rule + " (now " + value.toPlainString() + ", after #" + transaction.getSequence() + ")";
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches bank statement lines against the uncleared postings of an account
+ * (usually Cash) and marks the matched postings as cleared.
+ * <p>
+ * Uncleared postings are indexed by their exact amount and a date bucket as wide
+ * as the tolerance window, so each statement line only looks at postings of the
+ * same amount in at most two buckets. Matching a whole statement is therefore close to linear instead of
+ * comparing every line with every posting. When several postings qualify, the one
+ * whose description is most similar to the statement line wins, then the one
+ * closest in date, then the oldest.
+ * <p>
+ * Reversed postings and their reversing entries cancel out and never show up on a
+ * statement, so they are left out.
+ * <p>
+ * The statement of a foreign-currency account is in that currency, so such an account's
+ * postings are matched on their original amount. Its revaluation entries change only
+ * the functional-currency balance and are left out as well.
+ */
+public class BankReconciliation {
+
+    public static final int DEFAULT_DATE_TOLERANCE_DAYS = 3;
+
+    private final AccountingEngine engine;
+    private final Account account;
+    private final int dateToleranceDays;
+
+    /**
+     * @param account The account the statement belongs to.
+     * @param dateToleranceDays How many days a posting's date may differ from the statement line's.
+     */
+    public BankReconciliation(AccountingEngine engine, Account account, int dateToleranceDays) {
+        this.engine = engine;
+        this.account = account;
+        this.dateToleranceDays = dateToleranceDays;
+    }
+
+    public BankReconciliation(AccountingEngine engine, Account account) {
+        this(engine, account, DEFAULT_DATE_TOLERANCE_DAYS);
+    }
+
+    /**
+     * Matches the statement lines and marks every matched posting as cleared.
+     * @return The matches, plus what is left over on either side.
+     */
+    public Result reconcile(List<StatementLine> statement) {
+        synchronized (engine) {
+            Map<IndexKey, List<Transaction>> index = buildIndex();
+
+            Map<Transaction, int[]> postingPairs = new HashMap<>(); // Letter pairs of postings scored so far
+
+            List<Match> matches = new ArrayList<>();
+            List<StatementLine> unmatchedLines = new ArrayList<>();
+            for (StatementLine line : statement) {
+                Match match = findMatch(index, postingPairs, line);
+                if (match == null) {
+                    unmatchedLines.add(line);
+                } else {
+                    matches.add(match);
+                }
+            }
+
+            for (Match match : matches) {
+                engine.markCleared(match.getTransaction());
+            }
+
+            // Whatever is still indexed is outstanding (uncleared checks, deposits in transit, ...)
+            List<Transaction> unmatchedPostings = new ArrayList<>();
+            for (List<Transaction> bucket : index.values()) {
+                unmatchedPostings.addAll(bucket);
+            }
+            unmatchedPostings.sort((a, b) -> Long.compare(a.getSequence(), b.getSequence()));
+
+            return new Result(matches, unmatchedLines, unmatchedPostings);
+        }
+    }
+
+    /**
+     * Indexes the account's uncleared postings by amount (as it affects the balance, in the
+     * account's own currency) and date bucket.
+     */
+    private Map<IndexKey, List<Transaction>> buildIndex() {
+        Map<IndexKey, List<Transaction>> index = new HashMap<>();
+        for (Transaction tx : engine.getTransactionsForAccount(account)) {
+            if (tx.isCleared() || tx.isReversed() || tx.getReversalOf() != null || tx.isClosingEntry()) {
+                continue;
+            }
+            BigDecimal statementAmount = account.isForeignCurrency() ? tx.getOriginalAmount() : tx.getAmount();
+            if (account.isForeignCurrency() && statementAmount.signum() == 0) {
+                continue; // A revaluation
+            }
+            BigDecimal amount = account.signedAmount(statementAmount, tx.getDebitAccount().equals(account));
+            index.computeIfAbsent(new IndexKey(amount, bucketOf(tx.getDate())), k -> new ArrayList<>(1)).add(tx);
+        }
+        return index;
+    }
+
+    /**
+     * Picks the best posting for a statement line and takes it out of the index.
+     * @return The match, or null if no posting qualifies.
+     */
+    private Match findMatch(Map<IndexKey, List<Transaction>> index, Map<Transaction, int[]> postingPairs, StatementLine line) {
+        // Buckets are as wide as the tolerance window, so the window spans at most two of them
+        long from = line.getDate().toEpochDay() - dateToleranceDays;
+        long to = line.getDate().toEpochDay() + dateToleranceDays;
+        List<Transaction> candidates = new ArrayList<>();
+        for (long bucket = bucketOf(from); bucket <= bucketOf(to); bucket++) {
+            List<Transaction> postings = index.get(new IndexKey(line.getAmount(), bucket));
+            if (postings != null) {
+                for (Transaction tx : postings) {
+                    long day = tx.getDate().toEpochDay();
+                    if (day >= from && day <= to) {
+                        candidates.add(tx);
+                    }
+                }
+            }
+        }
+
+        Transaction best = null;
+        double bestScore = -1;
+        long bestDistance = 0;
+        int[] linePairs = candidates.size() > 1 ? letterPairs(line.getDescription()) : null;
+        for (Transaction tx : candidates) {
+            // Description scoring is only needed to break a tie between candidates
+            double score = linePairs == null ? 0
+                    : similarity(linePairs, postingPairs.computeIfAbsent(tx, t -> letterPairs(t.getDescription())));
+            long distance = Math.abs(tx.getDate().toEpochDay() - line.getDate().toEpochDay());
+            if (best == null || score > bestScore
+                    || (score == bestScore && (distance < bestDistance
+                    || (distance == bestDistance && tx.getSequence() < best.getSequence())))) {
+                best = tx;
+                bestScore = score;
+                bestDistance = distance;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        // A posting can only clear once
+        IndexKey key = new IndexKey(line.getAmount(), bucketOf(best.getDate()));
+        List<Transaction> postings = index.get(key);
+        postings.remove(best);
+        if (postings.isEmpty()) {
+            index.remove(key);
+        }
+        return new Match(line, best, linePairs == null ? similarity(line.getDescription(), best.getDescription()) : bestScore);
+    }
+
+    private long bucketOf(LocalDate date) {
+        return bucketOf(date.toEpochDay());
+    }
+
+    private long bucketOf(long epochDay) {
+        return Math.floorDiv(epochDay, 2 * dateToleranceDays + 1);
+    }
+
+    /**
+     * An amount and a date bucket. Amounts are compared by value, so 100, 100.0 and 100.00 are the same key.
+     */
+    private static class IndexKey {
+        private final BigDecimal amount;
+        private final long bucket;
+
+        IndexKey(BigDecimal amount, long bucket) {
+            this.amount = amount.signum() == 0 ? BigDecimal.ZERO : amount.stripTrailingZeros();
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) o;
+            return bucket == other.bucket && amount.equals(other.amount);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * amount.hashCode() + Long.hashCode(bucket);
+        }
+    }
+
+    /**
+     * Scores how alike two descriptions are, from 0 (nothing in common) to 1 (the same),
+     * using the Dice coefficient of their letter pairs. Case, spacing and punctuation are ignored,
+     * so "ACME CORP PMT" and "Payment - Acme Corp." still score well.
+     */
+    static double similarity(String a, String b) {
+        return similarity(letterPairs(a), letterPairs(b));
+    }
+
+    private static double similarity(int[] pairsA, int[] pairsB) {
+        if (pairsA.length == 0 || pairsB.length == 0) {
+            return 0;
+        }
+        // Both arrays are sorted, so shared pairs are counted in one merge pass
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < pairsA.length && j < pairsB.length) {
+            if (pairsA[i] < pairsB[j]) {
+                i++;
+            } else if (pairsA[i] > pairsB[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+        return 2.0 * common / (pairsA.length + pairsB.length);
+    }
+
+    /**
+     * The adjacent letter/digit pairs within each word, packed into ints and sorted.
+     */
+    private static int[] letterPairs(String text) {
+        if (text == null) {
+            return new int[0];
+        }
+        int[] pairs = new int[Math.max(0, text.length() - 1)];
+        int count = 0;
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (!Character.isLetterOrDigit(c)) {
+                previous = 0;
+                continue;
+            }
+            if (previous != 0) {
+                pairs[count++] = previous << 16 | c;
+            }
+            previous = c;
+        }
+        pairs = Arrays.copyOf(pairs, count);
+        Arrays.sort(pairs);
+        return pairs;
+    }
+
+    /**
+     * A statement line and the posting it cleared.
+     */
+    public static class Match {
+        private final StatementLine statementLine;
+        private final Transaction transaction;
+        private final double descriptionScore;
+
+        Match(StatementLine statementLine, Transaction transaction, double descriptionScore) {
+            this.statementLine = statementLine;
+            this.transaction = transaction;
+            this.descriptionScore = descriptionScore;
+        }
+
+        public StatementLine getStatementLine() {
+            return statementLine;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return How alike the two descriptions were, from 0 to 1.
+         */
+        public double getDescriptionScore() {
+            return descriptionScore;
+        }
+    }
+
+    /**
+     * The outcome of reconciling one statement.
+     */
+    public static class Result {
+        private final List<Match> matches;
+        private final List<StatementLine> unmatchedLines;
+        private final List<Transaction> unmatchedPostings;
+
+        Result(List<Match> matches, List<StatementLine> unmatchedLines, List<Transaction> unmatchedPostings) {
+            this.matches = Collections.unmodifiableList(matches);
+            this.unmatchedLines = Collections.unmodifiableList(unmatchedLines);
+            this.unmatchedPostings = Collections.unmodifiableList(unmatchedPostings);
+        }
+
+        public List<Match> getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return Statement lines with no posting in the books, e.g. bank fees not yet recorded.
+         */
+        public List<StatementLine> getUnmatchedLines() {
+            return unmatchedLines;
+        }
+
+        /**
+         * @return Postings still not cleared, e.g. outstanding checks and deposits in transit.
+         */
+        public List<Transaction> getUnmatchedPostings() {
+            return unmatchedPostings;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Exchange rates into the functional currency (PHP), by currency and date.
+ * A rate is the number of PHP for one unit of the foreign currency, e.g. 56.25 for USD.
+ * A rate holds from its date until the next rate for the same currency.
+ */
+public class ExchangeRates {
+
+    private final Map<Currency, NavigableMap<LocalDate, BigDecimal>> rates;
+
+    public ExchangeRates() {
+        this.rates = new HashMap<>();
+    }
+
+    /**
+     * Sets the rate of a currency from the given date on.
+     */
+    public synchronized void setRate(Currency currency, LocalDate date, BigDecimal rate) {
+        if (rate.signum() <= 0) {
+            throw new IllegalArgumentException("An exchange rate must be positive.");
+        }
+        rates.computeIfAbsent(currency, c -> new TreeMap<>()).put(date, rate);
+    }
+
+    /**
+     * Gets the rate of a currency on a date: the latest rate set on or before it.
+     * @throws IllegalStateException If no rate is known yet for that date.
+     */
+    public synchronized BigDecimal getRate(Currency currency, LocalDate date) {
+        if (currency.equals(AccountingEngine.FUNCTIONAL_CURRENCY)) {
+            return BigDecimal.ONE;
+        }
+        NavigableMap<LocalDate, BigDecimal> history = rates.get(currency);
+        Map.Entry<LocalDate, BigDecimal> entry = history == null ? null : history.floorEntry(date);
+        if (entry == null) {
+            throw new IllegalStateException("No " + currency.getCurrencyCode() + " rate on or before " + date + ".");
+        }
+        return entry.getValue();
+    }
+}
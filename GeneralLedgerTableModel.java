@@ -23,6 +23,16 @@ public class GeneralLedgerTableModel extends AbstractTableModel {
         calculateRunningBalances();
     }
 
+    /**
+     * Uses running balances already maintained by the AccountingEngine
+     * instead of recalculating them.
+     */
+    public GeneralLedgerTableModel(Account account, List<Transaction> transactions, List<BigDecimal> runningBalances) {
+        this.account = account;
+        this.transactions = transactions;
+        this.runningBalances = runningBalances;
+    }
+
     /**
      * Calculates the running balance for each transaction.
      */
@@ -0,0 +1,142 @@
+package accounting;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Detects re-delivered postings by their idempotency key using fixed memory.
+ * <p>
+ * Keys are remembered by their 64-bit hash in two open-addressing tables in direct
+ * memory: the current generation and the previous one. Once the current table has
+ * taken windowSize keys it becomes the previous one, and the old previous table is
+ * cleared and reused. Every key is therefore remembered for at least the next
+ * windowSize accepted keys, and at most twice that, whatever the postings' dates and
+ * wherever they are kept (heap, off-heap store or archives).
+ * <p>
+ * A key re-delivered after it has aged out is accepted again, so the window must cover
+ * the retry horizon of the feeds. The default of about a million keys takes 32 MB.
+ * Two different keys share a hash with odds of about one in 2^64 per pair. The newer
+ * key would then be taken for a duplicate.
+ */
+public class IdempotencyFilter {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 20;
+    public static final int MAX_WINDOW_SIZE = 1 << 26; // Tables of 1 GB each
+
+    private final int windowSize;
+    private KeyHashTable current;
+    private KeyHashTable previous;
+
+    /**
+     * @param windowSize How many of the most recent keys are surely remembered.
+     */
+    public IdempotencyFilter(int windowSize) {
+        if (windowSize < 1 || windowSize > MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException("The window must hold between 1 and " + MAX_WINDOW_SIZE + " keys: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        this.current = new KeyHashTable(windowSize);
+        this.previous = new KeyHashTable(windowSize);
+    }
+
+    public IdempotencyFilter() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @return True if a posting with this key was accepted within the window.
+     */
+    public boolean isDuplicate(String key) {
+        long hash = hash64(key);
+        return current.contains(hash) || previous.contains(hash);
+    }
+
+    /**
+     * Remembers the key of an accepted posting.
+     */
+    public void record(String key) {
+        long hash = hash64(key);
+        if (current.contains(hash) || previous.contains(hash)) {
+            return;
+        }
+        if (current.size() == windowSize) {
+            // The previous generation ages out
+            KeyHashTable reused = previous;
+            reused.clear();
+            previous = current;
+            current = reused;
+        }
+        current.add(hash);
+    }
+
+    /**
+     * 64-bit FNV-1a over the key's UTF-8 bytes, with a final avalanche mix.
+     */
+    private static long hash64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * An open-addressing hash set of 64-bit key hashes in direct memory, sized to stay
+     * at most half full. Zero marks an empty slot, so a hash of zero is stored as one.
+     */
+    private static class KeyHashTable {
+        private final LongBuffer slots;
+        private final int mask;
+        private int size;
+
+        KeyHashTable(int maxSize) {
+            int capacity = Integer.highestOneBit(2 * maxSize - 1) << 1; // The power of two at or above twice maxSize
+            this.slots = ByteBuffer.allocateDirect(capacity * Long.BYTES).asLongBuffer();
+            this.mask = capacity - 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(long hash) {
+            hash = hash != 0 ? hash : 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long stored = slots.get(slot);
+                if (stored == hash) {
+                    return true;
+                }
+                if (stored == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long hash) {
+            hash = hash != 0 ? hash : 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long stored = slots.get(slot);
+                if (stored == hash) {
+                    return;
+                }
+                if (stored == 0) {
+                    slots.put(slot, hash);
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            for (int slot = 0; slot <= mask; slot++) {
+                slots.put(slot, 0);
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An income statement (revenues, expenses and net income) for a date range,
+ * built from the PeriodCube instead of scanning transactions.
+ */
+public class IncomeStatement {
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Map<Account, BigDecimal> revenues;
+    private final Map<Account, BigDecimal> expenses;
+    private final BigDecimal totalRevenue;
+    private final BigDecimal totalExpenses;
+
+    private IncomeStatement(LocalDate from, LocalDate to, Map<Account, BigDecimal> revenues, Map<Account, BigDecimal> expenses) {
+        this.from = from;
+        this.to = to;
+        this.revenues = Collections.unmodifiableMap(revenues);
+        this.expenses = Collections.unmodifiableMap(expenses);
+        this.totalRevenue = revenues.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+        this.totalExpenses = expenses.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    /**
+     * Builds the income statement for the dates between from and to (inclusive).
+     */
+    public static IncomeStatement build(AccountingEngine engine, LocalDate from, LocalDate to) {
+        PeriodCube cube = engine.getPeriodCube();
+        Map<Account, BigDecimal> revenues = new LinkedHashMap<>();
+        Map<Account, BigDecimal> expenses = new LinkedHashMap<>();
+        for (Account account : engine.getChartOfAccounts()) {
+            if (account.getType() == AccountType.INCOME) {
+                revenues.put(account, cube.getNetChange(account, from, to));
+            } else if (account.getType() == AccountType.EXPENSE) {
+                expenses.put(account, cube.getNetChange(account, from, to));
+            }
+        }
+        return new IncomeStatement(from, to, revenues, expenses);
+    }
+
+    /**
+     * Builds one income statement per period, for side-by-side comparison.
+     * @param periods Pairs of {from, to} dates.
+     */
+    public static List<IncomeStatement> comparative(AccountingEngine engine, List<LocalDate[]> periods) {
+        List<IncomeStatement> statements = new ArrayList<>();
+        for (LocalDate[] period : periods) {
+            statements.add(build(engine, period[0], period[1]));
+        }
+        return statements;
+    }
+
+    // --- Getters ---
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    public Map<Account, BigDecimal> getRevenues() {
+        return revenues;
+    }
+
+    public Map<Account, BigDecimal> getExpenses() {
+        return expenses;
+    }
+
+    public BigDecimal getTotalRevenue() {
+        return totalRevenue;
+    }
+
+    public BigDecimal getTotalExpenses() {
+        return totalExpenses;
+    }
+
+    public BigDecimal getNetIncome() {
+        return totalRevenue.subtract(totalExpenses);
+    }
+}
+
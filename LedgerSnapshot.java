@@ -0,0 +1,124 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, point-in-time view of the Chart of Accounts, all balances,
+ * the type totals and the transaction count.
+ * <p>
+ * The AccountingEngine publishes a new snapshot after every posting (copy-on-write),
+ * so a report built from one snapshot always balances, even while postings continue.
+ * Taking a snapshot is a single volatile read: readers never block writers and
+ * writers never block readers.
+ */
+public final class LedgerSnapshot {
+
+    private final long version;
+    private final List<Account> accounts;
+    private final BigDecimal[] balances;   // Indexed like accounts
+    private final BigDecimal[] typeTotals; // Indexed by AccountType.ordinal()
+    private final long transactionCount;
+
+    private LedgerSnapshot(long version, List<Account> accounts, BigDecimal[] balances,
+                           BigDecimal[] typeTotals, long transactionCount) {
+        this.version = version;
+        this.accounts = accounts;
+        this.balances = balances;
+        this.typeTotals = typeTotals;
+        this.transactionCount = transactionCount;
+    }
+
+    /**
+     * Creates the first snapshot of a chart with the accounts' current balances.
+     */
+    static LedgerSnapshot of(List<Account> chartOfAccounts, long transactionCount) {
+        List<Account> accounts = Collections.unmodifiableList(new ArrayList<>(chartOfAccounts));
+        BigDecimal[] balances = new BigDecimal[accounts.size()];
+        BigDecimal[] typeTotals = new BigDecimal[AccountType.values().length];
+        Arrays.fill(typeTotals, BigDecimal.ZERO);
+        for (int i = 0; i < balances.length; i++) {
+            Account account = accounts.get(i);
+            balances[i] = account.getBalance();
+            int type = account.getType().ordinal();
+            typeTotals[type] = typeTotals[type].add(balances[i]);
+        }
+        return new LedgerSnapshot(0, accounts, balances, typeTotals, transactionCount);
+    }
+
+    /**
+     * Creates the next snapshot after a posting, copying only the two changed balances
+     * and type totals from the live accounts.
+     */
+    LedgerSnapshot next(Account debitAccount, Account creditAccount, BigDecimal debitTypeTotal,
+                        BigDecimal creditTypeTotal, long transactionCount) {
+        BigDecimal[] nextBalances = balances.clone();
+        nextBalances[indexOf(debitAccount)] = debitAccount.getBalance();
+        nextBalances[indexOf(creditAccount)] = creditAccount.getBalance();
+
+        BigDecimal[] nextTypeTotals = typeTotals.clone();
+        nextTypeTotals[debitAccount.getType().ordinal()] = debitTypeTotal;
+        nextTypeTotals[creditAccount.getType().ordinal()] = creditTypeTotal;
+
+        return new LedgerSnapshot(version + 1, accounts, nextBalances, nextTypeTotals, transactionCount);
+    }
+
+    /**
+     * Creates the next snapshot with only the transaction count changed (e.g. after a period close).
+     */
+    LedgerSnapshot withTransactionCount(long transactionCount) {
+        return new LedgerSnapshot(version + 1, accounts, balances, typeTotals, transactionCount);
+    }
+
+    private int indexOf(Account account) {
+        int index = accounts.indexOf(account);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown account: " + account);
+        }
+        return index;
+    }
+
+    // --- Getters ---
+
+    /**
+     * @return A number that increases with every posting; equal versions mean equal contents.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Account> getChartOfAccounts() {
+        return accounts;
+    }
+
+    public BigDecimal getBalance(Account account) {
+        return balances[indexOf(account)];
+    }
+
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public BigDecimal getTotal(AccountType type) {
+        return typeTotals[type.ordinal()];
+    }
+
+    public BigDecimal getTotalAssets() {
+        return getTotal(AccountType.ASSET);
+    }
+
+    public BigDecimal getTotalLiabilities() {
+        return getTotal(AccountType.LIABILITY);
+    }
+
+    /**
+     * Equity = Equity + Income - Expense, same as AccountingEngine.getTotalEquity().
+     */
+    public BigDecimal getTotalEquity() {
+        return getTotal(AccountType.EQUITY).add(getTotal(AccountType.INCOME)).subtract(getTotal(AccountType.EXPENSE));
+    }
+}
+
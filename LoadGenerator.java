@@ -0,0 +1,353 @@
+package accounting;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Synthetic workload generator and soak-test harness for the AccountingEngine.
+ * <p>
+ * Drives a realistic mix of postings and report reads for a fixed duration and
+ * prints, at every interval and at the end: sustained postings/sec, write and read
+ * latency percentiles, heap growth and GC pause totals.
+ * <p>
+ * Postings are made by a single writer thread. With --readers, that many threads also
+ * read reports concurrently as fast as they can, so the write latencies show how much
+ * the readers hold up the writer, and the read latencies how long readers wait for it.
+ * <p>
+ * Usage: LoadGenerator [--option=value ...]
+ * <pre>
+ *   --duration=SECONDS     how long to run (default 60)
+ *   --interval=SECONDS     how often to print a report line (default 10)
+ *   --rate=N               target postings/sec, 0 = as fast as possible (default 0)
+ *   --hot=FRACTION         share of postings touching Cash or Accounts Receivable (default 0.8)
+ *   --backdated=FRACTION   share of postings dated in the past (default 0.05)
+ *   --maxBackdate=DAYS     how far back a back-dated posting can go (default 365)
+ *   --vocabulary=N         number of distinct description words (default 500)
+ *   --reads=FRACTION       share of operations that are report reads (default 0.1)
+ *   --tables=true|false    also read the Swing table models headlessly (default false)
+ *   --readers=N            reader threads running alongside the writer (default 0)
+ *   --offheap=true|false   use an OffHeapTransactionStore (default false)
+ *   --seed=N               random seed (default 42)
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private final AccountingEngine engine;
+    private final CommandLineOptions options;
+    private final Random random;
+    private final double hotFraction;
+    private final double backdatedFraction;
+    private final int maxBackdate;
+
+    private final List<Account> accounts;
+    private final Account[] hotAccounts;
+    private final String[] vocabulary;
+
+    private final LatencyRecorder writeLatency = new LatencyRecorder();
+    private final LatencyRecorder readLatency = new LatencyRecorder();
+
+    public LoadGenerator(AccountingEngine engine, CommandLineOptions options) {
+        this.engine = engine;
+        this.options = options;
+        this.random = new Random(options.getLong("seed", 42));
+        this.hotFraction = options.getDouble("hot", 0.8);
+        this.backdatedFraction = options.getDouble("backdated", 0.05);
+        this.maxBackdate = (int) options.getLong("maxBackdate", 365);
+        this.accounts = new ArrayList<>();
+        for (Account account : engine.getChartOfAccounts()) {
+            if (!account.isForeignCurrency()) {
+                accounts.add(account); // Foreign-currency accounts need rates; left out of the mix
+            }
+        }
+        this.hotAccounts = new Account[]{engine.findAccount("Cash"), engine.findAccount("Accounts Receivable")};
+
+        this.vocabulary = new String[(int) options.getLong("vocabulary", 500)];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "item" + i;
+        }
+    }
+
+    /**
+     * Runs the workload and prints the reports.
+     */
+    public void run() {
+        long durationNanos = options.getLong("duration", 60) * 1_000_000_000L;
+        long intervalNanos = options.getLong("interval", 10) * 1_000_000_000L;
+        long rate = options.getLong("rate", 0);
+        double readFraction = options.getDouble("reads", 0.1);
+        boolean tables = options.getBoolean("tables", false);
+        int readers = (int) options.getLong("readers", 0);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long startHeap = memory.getHeapMemoryUsage().getUsed();
+        long[] startGc = gcTotals();
+
+        long start = System.nanoTime();
+        long nextReport = start + intervalNanos;
+        long postings = 0;
+        long intervalPostings = 0;
+        long intervalStart = start;
+
+        AtomicBoolean stopReaders = new AtomicBoolean();
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            Random readerRandom = new Random(options.getLong("seed", 42) + 1 + i);
+            Thread reader = new Thread(() -> {
+                while (!stopReaders.get()) {
+                    long t0 = System.nanoTime();
+                    runRead(readerRandom, tables);
+                    readLatency.record(System.nanoTime() - t0);
+                }
+            }, "reader-" + i);
+            reader.setDaemon(true);
+            reader.start();
+            readerThreads.add(reader);
+        }
+
+        System.out.println("elapsed_s  postings/s  write_p50/p99/p999/max_us  read_p50/p99/max_us  heap_mb  gc_count  gc_ms");
+        while (true) {
+            long now = System.nanoTime();
+            if (now - start >= durationNanos) {
+                break;
+            }
+
+            // Throttle to the target rate, if any
+            if (rate > 0 && postings >= (now - start) * rate / 1_000_000_000L) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            if (random.nextDouble() < readFraction) {
+                long t0 = System.nanoTime();
+                runRead(random, tables);
+                readLatency.record(System.nanoTime() - t0);
+            } else {
+                long t0 = System.nanoTime();
+                runPosting();
+                writeLatency.record(System.nanoTime() - t0);
+                postings++;
+                intervalPostings++;
+            }
+
+            if (now >= nextReport) {
+                printReport(now - start, intervalPostings, now - intervalStart, memory, startGc);
+                writeLatency.reset();
+                readLatency.reset();
+                intervalPostings = 0;
+                intervalStart = now;
+                nextReport += intervalNanos;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        stopReaders.set(true);
+        for (Thread reader : readerThreads) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long[] endGc = gcTotals();
+        long endHeap = memory.getHeapMemoryUsage().getUsed();
+        System.out.println();
+        System.out.printf("Total: %d postings in %.1f s = %.0f postings/s%n", postings, elapsed / 1e9, postings / (elapsed / 1e9));
+        System.out.printf("Heap: %d MB -> %d MB (%+d MB)%n", startHeap >> 20, endHeap >> 20, (endHeap - startHeap) >> 20);
+        System.out.printf("GC: %d collections, %d ms total pause%n", endGc[0] - startGc[0], endGc[1] - startGc[1]);
+    }
+
+    private void runPosting() {
+        Account debit;
+        Account credit;
+        if (random.nextDouble() < hotFraction) {
+            // Hot path: Cash or AR on one side
+            Account hot = hotAccounts[random.nextInt(hotAccounts.length)];
+            Account other = randomAccountOtherThan(hot);
+            boolean hotIsDebit = random.nextBoolean();
+            debit = hotIsDebit ? hot : other;
+            credit = hotIsDebit ? other : hot;
+        } else {
+            debit = accounts.get(random.nextInt(accounts.size()));
+            credit = randomAccountOtherThan(debit);
+        }
+
+        LocalDate date = LocalDate.now();
+        if (random.nextDouble() < backdatedFraction) {
+            date = date.minusDays(1 + random.nextInt(maxBackdate));
+        }
+
+        BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2);
+        engine.addTransaction(date, randomDescription(), debit, credit, amount);
+    }
+
+    /**
+     * One report read. Reader threads pass their own Random; the writer passes its own.
+     */
+    private void runRead(Random random, boolean tables) {
+        switch (random.nextInt(tables ? 4 : 2)) {
+            case 0:
+                // Balance sheet figures
+                LedgerSnapshot snapshot = engine.snapshot();
+                snapshot.getTotalAssets().compareTo(snapshot.getTotalLiabilities().add(snapshot.getTotalEquity()));
+                break;
+            case 1:
+                // Month-to-date income statement
+                LocalDate today = LocalDate.now();
+                IncomeStatement.build(engine, today.withDayOfMonth(1), today).getNetIncome();
+                break;
+            case 2:
+                // Transactions tab: one screenful at the end of the table. The list is a live
+                // view, so read it under the engine's lock as the Swing thread would have to.
+                synchronized (engine) {
+                    readLastRows(new TransactionTableModel(engine.getTransactions()));
+                }
+                break;
+            default:
+                // General Ledger tab for a hot account
+                Account hot = hotAccounts[random.nextInt(hotAccounts.length)];
+                GeneralLedgerTableModel model;
+                synchronized (engine) { // Both lists from the same posting
+                    model = new GeneralLedgerTableModel(hot, engine.getTransactionsForAccount(hot),
+                            engine.getRunningBalancesForAccount(hot));
+                }
+                readLastRows(model);
+                break;
+        }
+    }
+
+    private static void readLastRows(javax.swing.table.TableModel model) {
+        int rows = model.getRowCount();
+        for (int row = Math.max(0, rows - 40); row < rows; row++) {
+            for (int column = 0; column < model.getColumnCount(); column++) {
+                model.getValueAt(row, column);
+            }
+        }
+    }
+
+    private Account randomAccountOtherThan(Account account) {
+        Account other;
+        do {
+            other = accounts.get(random.nextInt(accounts.size()));
+        } while (other.equals(account));
+        return other;
+    }
+
+    /**
+     * Two words from the vocabulary, skewed towards the first ones like real descriptions.
+     */
+    private String randomDescription() {
+        return vocabulary[skewedIndex()] + " " + vocabulary[skewedIndex()];
+    }
+
+    private int skewedIndex() {
+        double u = random.nextDouble();
+        return (int) (u * u * u * vocabulary.length);
+    }
+
+    private void printReport(long elapsedNanos, long intervalPostings, long intervalNanos, MemoryMXBean memory, long[] startGc) {
+        long[] gc = gcTotals();
+        System.out.printf("%9.0f  %10.0f  %7d/%d/%d/%d  %7d/%d/%d  %7d  %8d  %5d%n",
+                elapsedNanos / 1e9,
+                intervalPostings / (intervalNanos / 1e9),
+                writeLatency.percentile(50) / 1000, writeLatency.percentile(99) / 1000,
+                writeLatency.percentile(99.9) / 1000, writeLatency.max() / 1000,
+                readLatency.percentile(50) / 1000, readLatency.percentile(99) / 1000, readLatency.max() / 1000,
+                memory.getHeapMemoryUsage().getUsed() >> 20,
+                gc[0] - startGc[0], gc[1] - startGc[1]);
+    }
+
+    /**
+     * @return {collection count, collection time in ms} summed over all collectors.
+     */
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    /**
+     * A latency histogram with fixed memory: 16 linear sub-buckets per power of two,
+     * so percentiles are accurate to about 6% however long the run. Synchronized, as
+     * reader threads record into it while the writer reports and resets it.
+     */
+    static class LatencyRecorder {
+        private static final int SUB_BUCKETS = 16;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long total;
+        private long max;
+
+        synchronized void record(long nanos) {
+            counts[bucketOf(Math.max(1, nanos))]++;
+            total++;
+            max = Math.max(max, nanos);
+        }
+
+        synchronized void reset() {
+            Arrays.fill(counts, 0);
+            total = 0;
+            max = 0;
+        }
+
+        synchronized long max() {
+            return max;
+        }
+
+        synchronized long percentile(double percent) {
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percent / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        private static int bucketOf(long value) {
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            if (magnitude < 4) {
+                return (int) value; // Values below 16 get exact buckets
+            }
+            int sub = (int) ((value >>> (magnitude - 4)) & (SUB_BUCKETS - 1));
+            return magnitude * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            int magnitude = bucket / SUB_BUCKETS;
+            if (magnitude < 4) {
+                return bucket;
+            }
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 4)) - 1;
+        }
+    }
+
+    public static void main(String[] args) {
+        CommandLineOptions options = CommandLineOptions.parse(args);
+        if (options.getBoolean("tables", false)) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        boolean offHeap = options.getBoolean("offheap", false);
+        AccountingEngine engine = offHeap ? new AccountingEngine(new OffHeapTransactionStore()) : new AccountingEngine();
+
+        new LoadGenerator(engine, options).run();
+    }
+}
+
@@ -4,14 +4,25 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Collections;
+import java.util.Currency;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 /**
  * Main application class.
@@ -21,11 +32,18 @@ import java.util.Locale;
 public class MainApp {
 
     // --- Core Data ---
-    private final AccountingEngine engine;
+    // Loaded in the background; null until the initial load has finished
+    private AccountingEngine engine;
+    private final Callable<AccountingEngine> engineLoader;
 
     // --- UI Components ---
     private JFrame frame;
     private JTabbedPane tabbedPane;
+    private JProgressBar progressBar;
+    private JLabel lblStatus;
+
+    // Tabs that have not been shown yet, by index. Built on first selection.
+    private final Map<Integer, Supplier<JComponent>> lazyTabs = new HashMap<>();
 
     // --- Tab 1: New Transaction ---
     private JSpinner dateSpinner;
@@ -33,11 +51,13 @@ public class MainApp {
     private JComboBox<Account> cmbDebitAccount;
     private JComboBox<Account> cmbCreditAccount;
     private JSpinner amountSpinner;
+    private JLabel lblAmountCurrency;
     private JButton btnAddTransaction;
 
     // --- Tab 2: Transactions ---
     private JTable tblTransactions;
     private TransactionTableModel transactionTableModel;
+    private JButton btnReverseTransaction;
 
     // --- Tab 3: Accounts ---
     private JTable tblAccounts;
@@ -58,13 +78,31 @@ public class MainApp {
     private JLabel lblTotalAssets;
     private JLabel lblTotalLiabilitiesEquity;
 
+    // --- Tab 7: Income Statement ---
+    private JTextArea txtIncomeStatement;
+
+    // --- Tab 8: Aging ---
+    private JTable tblAging;
+
     // Define Philippine Locale
     private static final Locale phLocale = new Locale("en", "PH");
 
 
     public MainApp() {
         // Initialize the accounting engine
-        engine = new AccountingEngine();
+        this(AccountingEngine::new);
+    }
+
+    public MainApp(AccountingEngine engine) {
+        this(() -> engine);
+    }
+
+    /**
+     * @param engineLoader Creates (and loads) the engine. Runs on a background thread
+     *                     while the window is already showing.
+     */
+    public MainApp(Callable<AccountingEngine> engineLoader) {
+        this.engineLoader = engineLoader;
     }
 
     /**
@@ -81,21 +119,129 @@ public class MainApp {
         tabbedPane = new JTabbedPane();
 
         // --- Create Tabs ---
+        // Only the first tab is built up front; the rest are built when first selected
         tabbedPane.addTab("New Transaction", createNewTransactionTab());
-        tabbedPane.addTab("Transactions", createTransactionsTab());
-        tabbedPane.addTab("Accounts", createAccountsTab());
-        tabbedPane.addTab("General Journal", createGeneralJournalTab());
-        tabbedPane.addTab("General Ledger", createGeneralLedgerTab());
-        tabbedPane.addTab("Balance Sheet", createBalanceSheetTab());
+        addLazyTab("Transactions", this::createTransactionsTab);
+        addLazyTab("Accounts", this::createAccountsTab);
+        addLazyTab("General Journal", this::createGeneralJournalTab);
+        addLazyTab("General Ledger", this::createGeneralLedgerTab);
+        addLazyTab("Balance Sheet", this::createBalanceSheetTab);
+        addLazyTab("Income Statement", this::createIncomeStatementTab);
+        addLazyTab("Aging", this::createAgingTab);
+        tabbedPane.addChangeListener(e -> materializeTab(tabbedPane.getSelectedIndex()));
+
+        // --- Status Bar ---
+        JPanel statusBar = new JPanel(new BorderLayout(5, 5));
+        statusBar.setBorder(new EmptyBorder(2, 5, 2, 5));
+        lblStatus = new JLabel("Loading...");
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        statusBar.add(lblStatus, BorderLayout.CENTER);
+        statusBar.add(progressBar, BorderLayout.EAST);
 
         // --- Add to Frame ---
         frame.add(tabbedPane, BorderLayout.CENTER);
+        frame.add(statusBar, BorderLayout.SOUTH);
+        if (Boolean.getBoolean("accounting.reportStartup")) {
+            // Time to an interactive window, for startup measurements
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowOpened(WindowEvent e) {
+                    System.out.println("Window interactive " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start");
+                }
+            });
+        }
         frame.setVisible(true);
 
         // --- Initial Data Load ---
-        loadComboBoxes();
-        refreshAllTables();
-        refreshBalanceSheet();
+        loadDataInBackground();
+    }
+
+    private void addLazyTab(String title, Supplier<JComponent> factory) {
+        lazyTabs.put(tabbedPane.getTabCount(), factory);
+        tabbedPane.addTab(title, new JPanel());
+    }
+
+    /**
+     * Builds a tab the first time it is selected and fills it with the current data.
+     */
+    private void materializeTab(int index) {
+        Supplier<JComponent> factory = lazyTabs.remove(index);
+        if (factory == null) {
+            return;
+        }
+        tabbedPane.setComponentAt(index, factory.get());
+        if (engine != null) {
+            if (cmbLedgerAccount != null && cmbLedgerAccount.getItemCount() == 0) {
+                for (Account acc : engine.getChartOfAccounts()) {
+                    cmbLedgerAccount.addItem(acc);
+                }
+            }
+            refreshAllTables();
+            refreshBalanceSheet();
+            refreshIncomeStatement();
+        }
+    }
+
+    /**
+     * Loads the engine on a background thread so the window is usable right away.
+     * Posting is disabled until the load has finished.
+     */
+    private void loadDataInBackground() {
+        btnAddTransaction.setEnabled(false);
+
+        new SwingWorker<AccountingEngine, Void>() {
+            private long loadMillis;
+
+            @Override
+            protected AccountingEngine doInBackground() throws Exception {
+                long start = System.nanoTime();
+                AccountingEngine loaded = engineLoader.call();
+                loaded.snapshot(); // Make sure the initial balances are ready
+                loadMillis = (System.nanoTime() - start) / 1_000_000;
+                return loaded;
+            }
+
+            @Override
+            protected void done() {
+                progressBar.setVisible(false);
+                try {
+                    engine = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    lblStatus.setText("Loading failed.");
+                    JOptionPane.showMessageDialog(frame, "Could not load data: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                lblStatus.setText(engine.getTransactionCount() + " transactions loaded in " + loadMillis + " ms");
+                btnAddTransaction.setEnabled(true);
+                loadComboBoxes();
+                refreshAllTables();
+                refreshBalanceSheet();
+                refreshIncomeStatement();
+                watchBalances();
+
+                // Used by appcds.sh for the archive training run
+                if (Boolean.getBoolean("accounting.exitAfterStartup")) {
+                    System.exit(0);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Standing alerts on key balances, shown in the status bar as soon as a posting breaches them.
+     */
+    private void watchBalances() {
+        Account cash = engine.findAccount("Cash");
+        if (cash == null) {
+            return;
+        }
+        BalanceAlerts alerts = new BalanceAlerts(engine);
+        alerts.addRule(BalanceAlerts.Rule.below(cash, new BigDecimal("50000")));
+        alerts.addAlertListener(alert -> SwingUtilities.invokeLater(
+                () -> lblStatus.setText("Alert: " + alert.getMessage())));
     }
 
     // =========================================================================
@@ -186,6 +332,15 @@ public class MainApp {
         amountSpinner.setEditor(amountEditor);
         panel.add(amountSpinner, gbc);
 
+        // Shows which currency the amount is in; foreign-currency accounts take amounts in their own currency
+        gbc.gridx = 2;
+        gbc.gridy = 4;
+        gbc.fill = GridBagConstraints.NONE;
+        lblAmountCurrency = new JLabel(AccountingEngine.FUNCTIONAL_CURRENCY.getCurrencyCode());
+        panel.add(lblAmountCurrency, gbc);
+        cmbDebitAccount.addActionListener(e -> updateAmountCurrency());
+        cmbCreditAccount.addActionListener(e -> updateAmountCurrency());
+
         // --- Row 5: Add Button ---
         gbc.gridx = 1;
         gbc.gridy = 5;
@@ -200,25 +355,43 @@ public class MainApp {
         return panel;
     }
 
-    private JScrollPane createTransactionsTab() {
-        transactionTableModel = new TransactionTableModel(engine.getTransactions());
-        tblTransactions = new JTable(transactionTableModel);
-        setupCurrencyRenderer(tblTransactions, 4); 
-        return new JScrollPane(tblTransactions);
+    private JPanel createTransactionsTab() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+
+        tblTransactions = new JTable(); // Filled by refreshAllTables()
+        panel.add(new JScrollPane(tblTransactions), BorderLayout.CENTER);
+
+        // --- Bottom: Reverse Button ---
+        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btnReverseTransaction = new JButton("Reverse Selected");
+        btnReverseTransaction.addActionListener(e -> reverseSelectedTransaction());
+        bottomPanel.add(btnReverseTransaction);
+        panel.add(bottomPanel, BorderLayout.SOUTH);
+
+        return panel;
     }
 
-    private JScrollPane createAccountsTab() {
-        accountTableModel = new AccountTableModel(engine.getChartOfAccounts());
-        tblAccounts = new JTable(accountTableModel);
-        setupCurrencyRenderer(tblAccounts, 2); 
-        return new JScrollPane(tblAccounts);
+    private JPanel createAccountsTab() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+
+        tblAccounts = new JTable(); // Filled by refreshAllTables()
+        panel.add(new JScrollPane(tblAccounts), BorderLayout.CENTER);
+
+        // --- Bottom: Exchange Rates ---
+        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton btnSetRate = new JButton("Set Exchange Rate...");
+        btnSetRate.addActionListener(e -> setExchangeRate());
+        bottomPanel.add(btnSetRate);
+        JButton btnRevalue = new JButton("Revalue Foreign Balances");
+        btnRevalue.addActionListener(e -> revalueForeignBalances());
+        bottomPanel.add(btnRevalue);
+        panel.add(bottomPanel, BorderLayout.SOUTH);
+
+        return panel;
     }
 
     private JScrollPane createGeneralJournalTab() {
-        generalJournalTableModel = new GeneralJournalTableModel(engine.getGeneralJournal());
-        tblGeneralJournal = new JTable(generalJournalTableModel);
-        setupCurrencyRenderer(tblGeneralJournal, 3); 
-        setupCurrencyRenderer(tblGeneralJournal, 4); 
+        tblGeneralJournal = new JTable(); // Filled by refreshAllTables()
         return new JScrollPane(tblGeneralJournal);
     }
 
@@ -274,6 +447,19 @@ public class MainApp {
         return panel;
     }
 
+    private JScrollPane createIncomeStatementTab() {
+        txtIncomeStatement = new JTextArea();
+        txtIncomeStatement.setEditable(false);
+        txtIncomeStatement.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        txtIncomeStatement.setBorder(new EmptyBorder(10, 10, 10, 10));
+        return new JScrollPane(txtIncomeStatement);
+    }
+
+    private JScrollPane createAgingTab() {
+        tblAging = new JTable(); // Filled by refreshAllTables()
+        return new JScrollPane(tblAging);
+    }
+
     // =========================================================================
     // UI LOGIC METHODS
     // =========================================================================
@@ -297,9 +483,10 @@ public class MainApp {
                 return;
             }
 
-            engine.addTransaction(localDate, description, debitAccount, creditAccount, amount);
+            engine.addTransaction(localDate, description, debitAccount, creditAccount, amountCurrency(), amount);
             refreshAllTables();
             refreshBalanceSheet();
+            refreshIncomeStatement();
             clearInputFields();
             JOptionPane.showMessageDialog(frame, "Transaction added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
 
@@ -308,16 +495,90 @@ public class MainApp {
         }
     }
 
+    private void reverseSelectedTransaction() {
+        int row = tblTransactions.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(frame, "Please select a transaction to reverse.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        Transaction original = engine.getTransactions().get(tblTransactions.convertRowIndexToModel(row));
+        int choice = JOptionPane.showConfirmDialog(frame, "Reverse \"" + original.getDescription() + "\"?", "Confirm Reversal", JOptionPane.YES_NO_OPTION);
+        if (choice != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        try {
+            engine.reverseTransaction(original, LocalDate.now());
+            refreshAllTables();
+            refreshBalanceSheet();
+            refreshIncomeStatement();
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(frame, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * The currency of the amount field: that of a foreign-currency account if one is selected.
+     */
+    private Currency amountCurrency() {
+        for (Object selected : new Object[]{cmbDebitAccount.getSelectedItem(), cmbCreditAccount.getSelectedItem()}) {
+            if (selected instanceof Account && ((Account) selected).isForeignCurrency()) {
+                return ((Account) selected).getCurrency();
+            }
+        }
+        return AccountingEngine.FUNCTIONAL_CURRENCY;
+    }
+
+    private void updateAmountCurrency() {
+        lblAmountCurrency.setText(amountCurrency().getCurrencyCode());
+    }
+
+    private void setExchangeRate() {
+        String code = JOptionPane.showInputDialog(frame, "Currency code (e.g. USD):", "Set Exchange Rate", JOptionPane.QUESTION_MESSAGE);
+        if (code == null || code.trim().isEmpty()) {
+            return;
+        }
+        try {
+            Currency currency = Currency.getInstance(code.trim().toUpperCase());
+            String rate = JOptionPane.showInputDialog(frame, AccountingEngine.FUNCTIONAL_CURRENCY.getCurrencyCode() + " per 1 "
+                    + currency.getCurrencyCode() + " from today on:", "Set Exchange Rate", JOptionPane.QUESTION_MESSAGE);
+            if (rate == null || rate.trim().isEmpty()) {
+                return;
+            }
+            engine.getExchangeRates().setRate(currency, LocalDate.now(), new BigDecimal(rate.trim()));
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(frame, "Invalid currency or rate: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void revalueForeignBalances() {
+        try {
+            java.util.List<Transaction> entries = engine.revalueForeignBalances(LocalDate.now(),
+                    engine.findAccount("Foreign Exchange Gain (Loss)"));
+            refreshAllTables();
+            refreshBalanceSheet();
+            refreshIncomeStatement();
+            JOptionPane.showMessageDialog(frame, entries.size() + " revaluation entries posted.", "Success", JOptionPane.INFORMATION_MESSAGE);
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(frame, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private void loadComboBoxes() {
         java.util.List<Account> accounts = engine.getChartOfAccounts();
         cmbDebitAccount.removeAllItems();
         cmbCreditAccount.removeAllItems();
-        cmbLedgerAccount.removeAllItems();
+        if (cmbLedgerAccount != null) {
+            cmbLedgerAccount.removeAllItems();
+        }
 
         for (Account acc : accounts) {
             cmbDebitAccount.addItem(acc);
             cmbCreditAccount.addItem(acc);
-            cmbLedgerAccount.addItem(acc);
+            if (cmbLedgerAccount != null) {
+                cmbLedgerAccount.addItem(acc);
+            }
         }
     }
 
@@ -330,27 +591,58 @@ public class MainApp {
     }
 
     private void refreshAllTables() {
+        // Tabs that have not been built yet are skipped; they are filled when first shown
+        if (engine == null) {
+            return;
+        }
+
         // --- Tab 2: Transactions ---
-        transactionTableModel = new TransactionTableModel(engine.getTransactions());
-        tblTransactions.setModel(transactionTableModel);
-        setupCurrencyRenderer(tblTransactions, 4);
+        if (tblTransactions != null) {
+            transactionTableModel = new TransactionTableModel(engine.getTransactions());
+            tblTransactions.setModel(transactionTableModel);
+            setupCurrencyRenderer(tblTransactions, 4);
+        }
 
         // --- Tab 3: Accounts ---
-        accountTableModel = new AccountTableModel(engine.getChartOfAccounts());
-        tblAccounts.setModel(accountTableModel);
-        setupCurrencyRenderer(tblAccounts, 2);
+        if (tblAccounts != null) {
+            accountTableModel = new AccountTableModel(engine.getChartOfAccounts());
+            tblAccounts.setModel(accountTableModel);
+            setupCurrencyRenderer(tblAccounts, 3);
+        }
 
         // --- Tab 4: General Journal ---
-        generalJournalTableModel = new GeneralJournalTableModel(engine.getGeneralJournal());
-        tblGeneralJournal.setModel(generalJournalTableModel);
-        setupCurrencyRenderer(tblGeneralJournal, 3);
-        setupCurrencyRenderer(tblGeneralJournal, 4);
+        if (tblGeneralJournal != null) {
+            generalJournalTableModel = new GeneralJournalTableModel(engine.getGeneralJournal());
+            tblGeneralJournal.setModel(generalJournalTableModel);
+            setupCurrencyRenderer(tblGeneralJournal, 3);
+            setupCurrencyRenderer(tblGeneralJournal, 4);
+        }
         
         // --- Tab 5: General Ledger ---
-        refreshGeneralLedgerTable();
+        if (tblGeneralLedger != null) {
+            refreshGeneralLedgerTable();
+        }
+
+        // --- Tab 8: Aging ---
+        if (tblAging != null) {
+            java.util.List<AgingSchedule> schedules = new java.util.ArrayList<>();
+            for (Account account : engine.getChartOfAccounts()) {
+                AgingSchedule aging = engine.getAgingSchedule(account);
+                if (aging != null) {
+                    schedules.add(aging);
+                }
+            }
+            tblAging.setModel(new AgingTableModel(schedules));
+            for (int column = 1; column <= 5; column++) {
+                setupCurrencyRenderer(tblAging, column);
+            }
+        }
     }
 
     private void refreshGeneralLedgerTable() {
+        if (engine == null) {
+            return;
+        }
         Account selectedAccount = (Account) cmbLedgerAccount.getSelectedItem();
         if (selectedAccount == null) {
             tblGeneralLedger.setModel(new GeneralLedgerTableModel(null, Collections.emptyList()));
@@ -358,7 +650,8 @@ public class MainApp {
         }
 
         java.util.List<Transaction> accountTransactions = engine.getTransactionsForAccount(selectedAccount);
-        GeneralLedgerTableModel ledgerModel = new GeneralLedgerTableModel(selectedAccount, accountTransactions);
+        java.util.List<BigDecimal> runningBalances = engine.getRunningBalancesForAccount(selectedAccount);
+        GeneralLedgerTableModel ledgerModel = new GeneralLedgerTableModel(selectedAccount, accountTransactions, runningBalances);
         tblGeneralLedger.setModel(ledgerModel);
 
         // Apply formatting
@@ -368,6 +661,9 @@ public class MainApp {
     }
 
     private void refreshBalanceSheet() {
+        if (engine == null || txtAssets == null) {
+            return;
+        }
         NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(phLocale);
 
         // FIX: Force Parentheses for negative numbers in the text area
@@ -377,11 +673,14 @@ public class MainApp {
             df.setNegativeSuffix(")");
         }
 
+        // Build the whole report from one snapshot so it always balances
+        LedgerSnapshot snapshot = engine.snapshot();
+
         StringBuilder sbAssets = new StringBuilder();
         StringBuilder sbLiabilities = new StringBuilder();
 
-        for (Account acc : engine.getChartOfAccounts()) {
-            String line = String.format("%-25s %15s\n", acc.getName(), currencyFormat.format(acc.getBalance()));
+        for (Account acc : snapshot.getChartOfAccounts()) {
+            String line = String.format("%-25s %15s\n", acc.getName(), currencyFormat.format(snapshot.getBalance(acc)));
             if (acc.getType() == AccountType.ASSET) {
                 sbAssets.append(line);
             } else if (acc.getType() == AccountType.LIABILITY) {
@@ -389,20 +688,15 @@ public class MainApp {
             }
         }
         
-        BigDecimal totalEquity = engine.getTotalEquity();
+        BigDecimal totalEquity = snapshot.getTotalEquity();
         sbLiabilities.append("\n--- Equity ---\n");
-        for (Account acc : engine.getChartOfAccounts()) {
+        for (Account acc : snapshot.getChartOfAccounts()) {
              if (acc.getType() == AccountType.EQUITY) {
-                sbLiabilities.append(String.format("%-25s %15s\n", acc.getName(), currencyFormat.format(acc.getBalance())));
+                sbLiabilities.append(String.format("%-25s %15s\n", acc.getName(), currencyFormat.format(snapshot.getBalance(acc))));
             }
         }
         
-        BigDecimal netIncome = engine.getTotalEquity().subtract(
-             engine.getChartOfAccounts().stream()
-                .filter(a -> a.getType() == AccountType.EQUITY)
-                .map(Account::getBalance)
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-        );
+        BigDecimal netIncome = totalEquity.subtract(snapshot.getTotal(AccountType.EQUITY));
 
         // FIX: Change label to "Net Loss" if negative
         if (netIncome.compareTo(BigDecimal.ZERO) < 0) {
@@ -414,14 +708,68 @@ public class MainApp {
         txtAssets.setText(sbAssets.toString());
         txtLiabilitiesEquity.setText(sbLiabilities.toString());
 
-        BigDecimal totalAssets = engine.getTotalAssets();
-        BigDecimal totalLiabilities = engine.getTotalLiabilities();
+        BigDecimal totalAssets = snapshot.getTotalAssets();
+        BigDecimal totalLiabilities = snapshot.getTotalLiabilities();
         BigDecimal totalLiabilitiesAndEquity = totalLiabilities.add(totalEquity);
 
         lblTotalAssets.setText("Total Assets: " + currencyFormat.format(totalAssets));
         lblTotalLiabilitiesEquity.setText("Total L & E: " + currencyFormat.format(totalLiabilitiesAndEquity));
     }
 
+    /**
+     * Shows this month, last month and year-to-date side by side.
+     * Every figure comes from the engine's PeriodCube, so this is instant however large the books are.
+     */
+    private void refreshIncomeStatement() {
+        if (engine == null || txtIncomeStatement == null) {
+            return;
+        }
+        NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(phLocale);
+        if (currencyFormat instanceof DecimalFormat) {
+            DecimalFormat df = (DecimalFormat) currencyFormat;
+            df.setNegativePrefix("(");
+            df.setNegativeSuffix(")");
+        }
+
+        LocalDate today = LocalDate.now();
+        LocalDate thisMonth = today.withDayOfMonth(1);
+        LocalDate lastMonth = thisMonth.minusMonths(1);
+        java.util.List<LocalDate[]> periods = java.util.Arrays.asList(
+                new LocalDate[]{thisMonth, today},
+                new LocalDate[]{lastMonth, thisMonth.minusDays(1)},
+                new LocalDate[]{today.withDayOfYear(1), today});
+        java.util.List<IncomeStatement> statements = IncomeStatement.comparative(engine, periods);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-25s %15s %15s %15s\n", "", "This Month", "Last Month", "Year to Date"));
+        sb.append("\n--- Revenue ---\n");
+        for (Account acc : statements.get(0).getRevenues().keySet()) {
+            appendIncomeStatementLine(sb, currencyFormat, acc.getName(), statements, s -> s.getRevenues().get(acc));
+        }
+        appendIncomeStatementLine(sb, currencyFormat, "Total Revenue", statements, IncomeStatement::getTotalRevenue);
+
+        sb.append("\n--- Expenses ---\n");
+        for (Account acc : statements.get(0).getExpenses().keySet()) {
+            appendIncomeStatementLine(sb, currencyFormat, acc.getName(), statements, s -> s.getExpenses().get(acc));
+        }
+        appendIncomeStatementLine(sb, currencyFormat, "Total Expenses", statements, IncomeStatement::getTotalExpenses);
+
+        sb.append("\n");
+        appendIncomeStatementLine(sb, currencyFormat, "Net Income", statements, IncomeStatement::getNetIncome);
+
+        txtIncomeStatement.setText(sb.toString());
+    }
+
+    private void appendIncomeStatementLine(StringBuilder sb, NumberFormat currencyFormat, String label,
+                                           java.util.List<IncomeStatement> statements,
+                                           java.util.function.Function<IncomeStatement, BigDecimal> value) {
+        sb.append(String.format("%-25s", label));
+        for (IncomeStatement statement : statements) {
+            sb.append(String.format(" %15s", currencyFormat.format(value.apply(statement))));
+        }
+        sb.append("\n");
+    }
+
     private void setupCurrencyRenderer(JTable table, int columnIndex) {
         table.getColumnModel().getColumn(columnIndex).setCellRenderer(new CurrencyRenderer());
     }
@@ -434,6 +782,7 @@ public class MainApp {
 
         // FIX: Static initialization to ensure parentheses formatting on the JTables
         static {
+            FORMAT.setCurrency(AccountingEngine.FUNCTIONAL_CURRENCY);
             if (FORMAT instanceof DecimalFormat) {
                 DecimalFormat df = (DecimalFormat) FORMAT;
                 df.setNegativePrefix("(");
@@ -458,9 +807,43 @@ public class MainApp {
     }
 
     public static void main(String[] args) {
+        // Optional: "--primary <port>" lets ReplicationFollower processes attach to this instance
+        // Optional: "--offheap [file]" keeps transactions off the Java heap (memory-mapped if a file is given)
+        int primaryPort = -1;
+        boolean offHeap = false;
+        Path offHeapFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--primary") && i + 1 < args.length) {
+                primaryPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--offheap")) {
+                offHeap = true;
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    offHeapFile = Paths.get(args[++i]);
+                }
+            }
+        }
+        final int replicationPort = primaryPort;
+        final boolean useOffHeap = offHeap;
+        final Path storeFile = offHeapFile;
+
+        // Runs in the background while the window is already up
+        Callable<AccountingEngine> loader = () -> {
+            AccountingEngine engine;
+            if (useOffHeap) {
+                engine = new AccountingEngine(storeFile != null ? new OffHeapTransactionStore(storeFile) : new OffHeapTransactionStore());
+            } else {
+                engine = new AccountingEngine();
+            }
+            if (replicationPort >= 0) {
+                ReplicationPrimary primary = new ReplicationPrimary(engine, replicationPort);
+                System.out.println("Replication primary listening on port " + primary.getPort());
+            }
+            return engine;
+        };
+
         SwingUtilities.invokeLater(() -> {
-            MainApp app = new MainApp();
+            MainApp app = new MainApp(loader);
             app.createAndShowGUI();
         });
     }
-}
\ No newline at end of file
+}
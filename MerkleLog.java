@@ -0,0 +1,582 @@
+package accounting;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Tamper-evident record of every posting: a SHA-256 hash chain plus a Merkle tree
+ * over the same leaves, maintained as transactions are posted.
+ * <p>
+ * Leaf n is the hash of the posting with sequence n. The tree is shaped as in
+ * RFC 6962 (certificate transparency), so the root of any earlier size can still be
+ * computed and compared with a root published back then. Appending costs O(log n)
+ * hashes (one on average). A proof for a single posting, or for a run of
+ * consecutive postings, holds O(log n) hashes; checking it only rehashes the
+ * postings in question, never the whole history.
+ * <p>
+ * Every node also commits to the earliest and latest date below each of its children.
+ * That makes date ranges provable: a period proof shows, for every subtree it leaves
+ * out, that none of its postings is dated in the period. Postings are committed
+ * roughly in date order, so a period costs its own postings, a few neighbours at its
+ * edges and O(log n) hashes, and a posting left out of the period cannot go unnoticed.
+ * <p>
+ * Tree nodes are kept in direct memory, 48 bytes each (hash and date range), about
+ * two per posting. Once a period is closed, the nodes below its postings are moved to a
+ * scratch file and read back from there when a proof or an old root needs them, so
+ * memory follows the open period.
+ * <p>
+ * The engine appends to the log itself, before it changes anything else, rather than
+ * as a listener: a posting the log cannot take is not made at all.
+ */
+public class MerkleLog {
+
+    public static final int HASH_SIZE = 32;
+    /** A node, as held in the tree and in proofs: its hash, then its earliest and latest epoch day. */
+    public static final int NODE_SIZE = HASH_SIZE + 2 * Long.BYTES;
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+
+    private final MessageDigest digest;
+    private final List<NodeArray> levels; // levels.get(h) holds the complete subtrees of 2^h leaves, left to right
+    private byte[] chainHead;
+    private long size;
+    private FileChannel spillFile; // Created on the first spill
+
+    public MerkleLog() {
+        this.digest = sha256();
+        this.levels = new ArrayList<>();
+        this.chainHead = new byte[HASH_SIZE];
+    }
+
+    /**
+     * Appends a posting, which must have the next sequence. Either the log takes it
+     * completely or, on failure, is left as it was.
+     */
+    synchronized void append(Transaction transaction) {
+        if (transaction.getSequence() != size) {
+            throw new IllegalStateException("Expected posting #" + size + " but got #" + transaction.getSequence());
+        }
+        byte[] leaf = leafHash(digest, transaction);
+
+        // Chain: each head commits to the previous one
+        digest.update(chainHead);
+        byte[] newChainHead = digest.digest(leaf);
+
+        // Tree: the leaf, then the node of every subtree it completes, all worked out first
+        List<byte[]> path = new ArrayList<>();
+        byte[] node = leafNode(leaf, transaction.getDate().toEpochDay());
+        long index = size;
+        for (int height = 0; ; height++) {
+            path.add(node);
+            if ((index & 1) == 0) {
+                break;
+            }
+            node = parentNode(digest, levels.get(height).get(index - 1), node);
+            index >>>= 1;
+        }
+        while (levels.size() < path.size()) {
+            levels.add(new NodeArray());
+        }
+        for (int height = 0; height < path.size(); height++) {
+            levels.get(height).reserve();
+        }
+
+        // Nothing below can fail
+        for (int height = 0; height < path.size(); height++) {
+            levels.get(height).add(path.get(height));
+        }
+        chainHead = newChainHead;
+        size++;
+    }
+
+    /**
+     * Moves the nodes that lie wholly below the given sequence out of direct memory into a
+     * scratch file, a chunk at a time. Called when a period is closed, with the first
+     * sequence still held in memory; those nodes never change again.
+     */
+    synchronized void spillBelow(long sequence) throws IOException {
+        for (int height = 0; height < levels.size(); height++) {
+            NodeArray level = levels.get(height);
+            // Node i covers postings i * 2^height to (i + 1) * 2^height - 1
+            long completeBelow = Math.min(level.count, sequence >>> height);
+            if (level.spillableChunks(completeBelow) > 0) {
+                if (spillFile == null) {
+                    Path file = Files.createTempFile("merkle", ".nodes");
+                    file.toFile().deleteOnExit();
+                    spillFile = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                level.spill(completeBelow, spillFile);
+            }
+        }
+    }
+
+    /**
+     * @return How many postings are in the log.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Gets the head of the hash chain, which commits to every posting in order.
+     */
+    public synchronized byte[] getChainHead() {
+        return chainHead.clone();
+    }
+
+    /**
+     * Gets the Merkle root over all postings so far.
+     */
+    public synchronized byte[] getRoot() {
+        return getRoot(size);
+    }
+
+    /**
+     * Gets the Merkle root the log had when it held the given number of postings.
+     */
+    public synchronized byte[] getRoot(long treeSize) {
+        checkTreeSize(treeSize);
+        if (treeSize == 0) {
+            return digest.digest();
+        }
+        return hashOf(subtreeNode(0, treeSize));
+    }
+
+    /**
+     * Builds the proof that postings fromSequence (inclusive) to toSequence (exclusive)
+     * are part of the tree of the given size. Holds O(log n) nodes of NODE_SIZE bytes.
+     */
+    public synchronized List<byte[]> proveRange(long fromSequence, long toSequence, long treeSize) {
+        checkTreeSize(treeSize);
+        if (fromSequence < 0 || fromSequence >= toSequence || toSequence > treeSize) {
+            throw new IllegalArgumentException("Invalid range [" + fromSequence + ", " + toSequence + ") for size " + treeSize);
+        }
+        List<byte[]> proof = new ArrayList<>();
+        collectProof(0, treeSize, fromSequence, toSequence, proof);
+        return proof;
+    }
+
+    /**
+     * Checks postings against a trusted root, e.g. one published by the auditors.
+     * @param postings Consecutive postings, in sequence order.
+     * @param treeSize How many postings the log held when the root was taken.
+     * @return True if the postings are exactly the ones the root commits to.
+     */
+    public boolean verify(List<Transaction> postings, long treeSize, byte[] trustedRoot) {
+        if (postings.isEmpty()) {
+            return false;
+        }
+        long from = postings.get(0).getSequence();
+        long to = from + postings.size();
+        if (to > treeSize || treeSize > size()) {
+            return false;
+        }
+        return verifyRange(postings, treeSize, proveRange(from, to, treeSize), trustedRoot);
+    }
+
+    /**
+     * Checks a range proof without access to the log itself.
+     * @param postings Consecutive postings, in sequence order.
+     * @param proof As returned by proveRange() for the same range and tree size.
+     */
+    public static boolean verifyRange(List<Transaction> postings, long treeSize, List<byte[]> proof, byte[] trustedRoot) {
+        if (postings.isEmpty()) {
+            return false;
+        }
+        long from = postings.get(0).getSequence();
+        long to = from + postings.size();
+        if (from < 0 || to > treeSize) {
+            return false;
+        }
+        MessageDigest digest = sha256();
+        List<byte[]> leaves = new ArrayList<>(postings.size());
+        for (int i = 0; i < postings.size(); i++) {
+            if (postings.get(i).getSequence() != from + i) {
+                return false; // Not consecutive
+            }
+            leaves.add(leafNode(leafHash(digest, postings.get(i)), postings.get(i).getDate().toEpochDay()));
+        }
+        Iterator<byte[]> proofNodes = proof.iterator();
+        byte[] root;
+        try {
+            root = computeRoot(digest, 0, treeSize, from, to, leaves, proofNodes);
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            return false; // Proof too short or malformed
+        }
+        return !proofNodes.hasNext() && MessageDigest.isEqual(hashOf(root), trustedRoot);
+    }
+
+    /**
+     * Builds the proof that a period's postings are exactly the ones the tree of the given
+     * size holds. It names the postings that must be shown (every one dated in the period,
+     * and a few out-of-period ones where dates interleave at its edges) and holds the nodes
+     * of the subtrees left out, each dated wholly before or after the period.
+     */
+    public synchronized PeriodProof provePeriod(LocalDate from, LocalDate to, long treeSize) {
+        checkTreeSize(treeSize);
+        PeriodProof proof = new PeriodProof();
+        if (treeSize > 0) {
+            collectPeriodProof(0, treeSize, from.toEpochDay(), to.toEpochDay(), true, proof);
+        }
+        return proof;
+    }
+
+    /**
+     * Checks a period proof without access to the log itself.
+     * @param postings The postings named by the proof, in sequence order.
+     * @param proofNodes As returned by provePeriod().getNodes() for the same period and tree size.
+     * @return True if the postings match the root and no other posting in the tree is dated in the period.
+     */
+    public static boolean verifyPeriod(LocalDate from, LocalDate to, List<Transaction> postings, long treeSize,
+                                       List<byte[]> proofNodes, byte[] trustedRoot) {
+        MessageDigest digest = sha256();
+        if (treeSize <= 0) {
+            return treeSize == 0 && postings.isEmpty() && proofNodes.isEmpty() && MessageDigest.isEqual(digest.digest(), trustedRoot);
+        }
+        for (int i = 0; i < postings.size(); i++) {
+            long sequence = postings.get(i).getSequence();
+            if (sequence < 0 || sequence >= treeSize || (i > 0 && sequence <= postings.get(i - 1).getSequence())) {
+                return false; // Out of the tree or not in sequence order
+            }
+        }
+        PeriodWalk walk = new PeriodWalk(digest, from.toEpochDay(), to.toEpochDay(), postings, proofNodes.iterator());
+        byte[] root;
+        try {
+            root = walk.computeRoot(0, treeSize, true);
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            return false; // Proof too short or leaves out part of the period
+        }
+        return walk.next == postings.size() && !walk.proof.hasNext() && MessageDigest.isEqual(hashOf(root), trustedRoot);
+    }
+
+    // --- Tree Walks ---
+
+    /**
+     * Node of the subtree over leaves lo (inclusive) to hi (exclusive).
+     * Complete subtrees are stored; only the right edge of a partial tree is recomputed.
+     */
+    private byte[] subtreeNode(long lo, long hi) {
+        long width = hi - lo;
+        if (Long.bitCount(width) == 1) {
+            int height = Long.numberOfTrailingZeros(width);
+            return levels.get(height).get(lo >>> height);
+        }
+        long split = Long.highestOneBit(width - 1);
+        return parentNode(digest, subtreeNode(lo, lo + split), subtreeNode(lo + split, hi));
+    }
+
+    /**
+     * Adds the node of every maximal subtree outside [from, to), left to right.
+     */
+    private void collectProof(long lo, long hi, long from, long to, List<byte[]> proof) {
+        if (hi <= from || to <= lo) {
+            proof.add(subtreeNode(lo, hi));
+        } else if (lo < from || to < hi) {
+            long split = Long.highestOneBit(hi - lo - 1);
+            collectProof(lo, lo + split, from, to, proof);
+            collectProof(lo + split, hi, from, to, proof);
+        }
+    }
+
+    /**
+     * Mirror of collectProof(): rebuilds the root from the range's leaves and the proof.
+     */
+    private static byte[] computeRoot(MessageDigest digest, long lo, long hi, long from, long to,
+                                      List<byte[]> leaves, Iterator<byte[]> proof) {
+        if (hi <= from || to <= lo) {
+            return checkNode(proof.next());
+        }
+        if (hi - lo == 1) {
+            return leaves.get((int) (lo - from));
+        }
+        long split = Long.highestOneBit(hi - lo - 1);
+        return parentNode(digest, computeRoot(digest, lo, lo + split, from, to, leaves, proof),
+                computeRoot(digest, lo + split, hi, from, to, leaves, proof));
+    }
+
+    /**
+     * Leaves out every maximal subtree dated wholly outside the period and names the
+     * postings of the rest. The root is never left out: its own date range is not
+     * committed to by any hash, only those of its children are.
+     * @return True if a posting below this subtree was named.
+     */
+    private boolean collectPeriodProof(long lo, long hi, long fromDay, long toDay, boolean root, PeriodProof proof) {
+        byte[] node = subtreeNode(lo, hi);
+        if (!root && (maxDay(node) < fromDay || minDay(node) > toDay)) {
+            proof.nodes.add(node);
+            return false;
+        }
+        if (hi - lo == 1) {
+            proof.sequences.add(lo);
+            return true;
+        }
+        int mark = proof.nodes.size();
+        long split = Long.highestOneBit(hi - lo - 1);
+        boolean left = collectPeriodProof(lo, lo + split, fromDay, toDay, false, proof);
+        boolean right = collectPeriodProof(lo + split, hi, fromDay, toDay, false, proof);
+        if (left || right) {
+            return true;
+        }
+        // Dated around the period but with none in it, so both halves were left out. The
+        // verifier only opens a subtree it has a posting for: name the first one, and
+        // leave out the rest, which lies within the two halves.
+        proof.nodes.subList(mark, proof.nodes.size()).clear();
+        proof.sequences.add(lo);
+        collectProof(lo, hi, lo, lo + 1, proof.nodes);
+        return true;
+    }
+
+    /**
+     * Mirror of collectPeriodProof(): a subtree is descended into when a posting below it
+     * was supplied, and otherwise taken from the proof, which must show it dated wholly
+     * outside the period.
+     */
+    private static class PeriodWalk {
+        private final MessageDigest digest;
+        private final long fromDay;
+        private final long toDay;
+        private final List<Transaction> postings;
+        private final Iterator<byte[]> proof;
+        private int next; // Index of the next posting to place
+
+        PeriodWalk(MessageDigest digest, long fromDay, long toDay, List<Transaction> postings, Iterator<byte[]> proof) {
+            this.digest = digest;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.postings = postings;
+            this.proof = proof;
+        }
+
+        byte[] computeRoot(long lo, long hi, boolean root) {
+            boolean supplied = next < postings.size() && postings.get(next).getSequence() < hi;
+            if (!supplied && !root) {
+                byte[] node = checkNode(proof.next());
+                if (maxDay(node) >= fromDay && minDay(node) <= toDay) {
+                    throw new IllegalArgumentException("A subtree left out of the proof overlaps the period.");
+                }
+                return node;
+            }
+            if (hi - lo == 1) {
+                if (!supplied) {
+                    throw new IllegalArgumentException("The only posting was not supplied.");
+                }
+                Transaction tx = postings.get(next++);
+                return leafNode(leafHash(digest, tx), tx.getDate().toEpochDay());
+            }
+            long split = Long.highestOneBit(hi - lo - 1);
+            return parentNode(digest, computeRoot(lo, lo + split, false), computeRoot(lo + split, hi, false));
+        }
+    }
+
+    private void checkTreeSize(long treeSize) {
+        if (treeSize < 0 || treeSize > size) {
+            throw new IllegalArgumentException("The log only holds " + size + " postings, not " + treeSize);
+        }
+    }
+
+    // --- Hashing ---
+
+    /**
+     * Hashes the fields that make up a posting, including the currency and original amount
+     * of a foreign-currency entry (both empty otherwise). The reversal link is left out
+     * because archives don't keep it; a reversing entry's description already names the original.
+     */
+    static byte[] leafHash(MessageDigest digest, Transaction tx) {
+        byte[] description = tx.getDescription().getBytes(StandardCharsets.UTF_8);
+        byte[] debit = tx.getDebitAccount().getName().getBytes(StandardCharsets.UTF_8);
+        byte[] credit = tx.getCreditAccount().getName().getBytes(StandardCharsets.UTF_8);
+        byte[] amount = tx.getAmount().toPlainString().getBytes(StandardCharsets.UTF_8);
+        byte[] currency = tx.isForeignCurrency()
+                ? tx.getCurrency().getCurrencyCode().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] originalAmount = tx.isForeignCurrency()
+                ? tx.getOriginalAmount().toPlainString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+
+        // Fields are length-prefixed, so no two different postings encode the same way
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 6 * 4 + description.length + debit.length
+                + credit.length + amount.length + currency.length + originalAmount.length + 1);
+        buffer.put(LEAF_PREFIX);
+        buffer.putLong(tx.getSequence());
+        buffer.putLong(tx.getDate().toEpochDay());
+        buffer.putInt(description.length).put(description);
+        buffer.putInt(debit.length).put(debit);
+        buffer.putInt(credit.length).put(credit);
+        buffer.putInt(amount.length).put(amount);
+        buffer.putInt(currency.length).put(currency);
+        buffer.putInt(originalAmount.length).put(originalAmount);
+        buffer.put((byte) (tx.isClosingEntry() ? 1 : 0));
+        return digest.digest(buffer.array());
+    }
+
+    private static byte[] leafNode(byte[] leafHash, long epochDay) {
+        return ByteBuffer.allocate(NODE_SIZE).put(leafHash).putLong(epochDay).putLong(epochDay).array();
+    }
+
+    /**
+     * The parent hash covers both children's hashes and date ranges, so a date range
+     * claimed for either child in a proof cannot be altered.
+     */
+    private static byte[] parentNode(MessageDigest digest, byte[] left, byte[] right) {
+        digest.update(NODE_PREFIX);
+        digest.update(left, HASH_SIZE, NODE_SIZE - HASH_SIZE);
+        digest.update(right, HASH_SIZE, NODE_SIZE - HASH_SIZE);
+        digest.update(left, 0, HASH_SIZE);
+        digest.update(right, 0, HASH_SIZE);
+        byte[] hash = digest.digest();
+        return ByteBuffer.allocate(NODE_SIZE).put(hash)
+                .putLong(Math.min(minDay(left), minDay(right)))
+                .putLong(Math.max(maxDay(left), maxDay(right))).array();
+    }
+
+    private static byte[] checkNode(byte[] node) {
+        if (node.length != NODE_SIZE) {
+            throw new IllegalArgumentException("A proof node must be " + NODE_SIZE + " bytes.");
+        }
+        return node;
+    }
+
+    private static byte[] hashOf(byte[] node) {
+        return Arrays.copyOf(node, HASH_SIZE);
+    }
+
+    private static long minDay(byte[] node) {
+        return ByteBuffer.wrap(node).getLong(HASH_SIZE);
+    }
+
+    private static long maxDay(byte[] node) {
+        return ByteBuffer.wrap(node).getLong(HASH_SIZE + Long.BYTES);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e); // Every JRE must provide it
+        }
+    }
+
+    /**
+     * Hex form of a hash, for printing and publishing roots.
+     */
+    public static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The postings and nodes that make up a period proof.
+     */
+    public static class PeriodProof {
+        private final List<Long> sequences = new ArrayList<>();
+        private final List<byte[]> nodes = new ArrayList<>();
+
+        /**
+         * @return The sequences of the postings that must be supplied, in order.
+         */
+        public List<Long> getSequences() {
+            return sequences;
+        }
+
+        /**
+         * @return The nodes of the subtrees left out, left to right.
+         */
+        public List<byte[]> getNodes() {
+            return nodes;
+        }
+    }
+
+    /**
+     * A growable array of nodes (hash and date range) in chunks of direct memory. Full
+     * chunks can be spilled to a file; their nodes are then read from there.
+     * Not thread-safe: the buffers' positions are moved on every access.
+     */
+    private static class NodeArray {
+        private static final int NODES_PER_CHUNK = 1 << 12; // 192 KB per chunk
+        private static final int CHUNK_SIZE = NODES_PER_CHUNK * NODE_SIZE;
+        private final List<ByteBuffer> chunks = new ArrayList<>(); // Null once spilled
+        private final List<Long> spillOffsets = new ArrayList<>(); // File offset of each spilled chunk, in order
+        private FileChannel spillFile;
+        private long count;
+
+        /**
+         * Makes sure the next add() has room, so that it cannot fail.
+         */
+        void reserve() {
+            if (count == (long) chunks.size() * NODES_PER_CHUNK) {
+                chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+            }
+        }
+
+        void add(byte[] node) {
+            ByteBuffer chunk = chunks.get((int) (count / NODES_PER_CHUNK));
+            chunk.position((int) (count % NODES_PER_CHUNK) * NODE_SIZE);
+            chunk.put(node);
+            count++;
+        }
+
+        byte[] get(long index) {
+            int chunkIndex = (int) (index / NODES_PER_CHUNK);
+            int offset = (int) (index % NODES_PER_CHUNK) * NODE_SIZE;
+            byte[] node = new byte[NODE_SIZE];
+            ByteBuffer chunk = chunks.get(chunkIndex);
+            if (chunk != null) {
+                chunk.position(offset);
+                chunk.get(node);
+                return node;
+            }
+            try {
+                ByteBuffer target = ByteBuffer.wrap(node);
+                long position = spillOffsets.get(chunkIndex) + offset;
+                while (target.hasRemaining()) {
+                    if (spillFile.read(target, position + target.position()) < 0) {
+                        throw new IOException("Unexpected end of the Merkle scratch file.");
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read Merkle node " + index + " from the scratch file.", e);
+            }
+            return node;
+        }
+
+        /**
+         * @return How many full chunks below the given node index are still in memory.
+         */
+        int spillableChunks(long belowIndex) {
+            return (int) (belowIndex / NODES_PER_CHUNK) - spillOffsets.size();
+        }
+
+        /**
+         * Writes the full chunks below the given node index to the end of the file and
+         * lets go of their memory. A failed write leaves them in memory.
+         */
+        void spill(long belowIndex, FileChannel file) throws IOException {
+            int end = (int) (belowIndex / NODES_PER_CHUNK);
+            for (int chunkIndex = spillOffsets.size(); chunkIndex < end; chunkIndex++) {
+                ByteBuffer chunk = chunks.get(chunkIndex).duplicate();
+                chunk.clear();
+                long offset = file.size();
+                while (chunk.hasRemaining()) {
+                    file.write(chunk, offset + chunk.position());
+                }
+                spillFile = file;
+                spillOffsets.add(offset);
+                chunks.set(chunkIndex, null);
+            }
+        }
+    }
+}
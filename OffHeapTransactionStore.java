@@ -0,0 +1,448 @@
+package accounting;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores transactions outside the Java heap as fixed-width 32 byte records,
+ * so the garbage collector never has to trace the book, however large it gets.
+ * <p>
+ * Records live in chunks of direct ByteBuffers, or in memory-mapped regions of a
+ * scratch file when one is given (letting the OS page cold history out of RAM).
+ * The only on-heap data is the description dictionary, which stays small as long
+ * as descriptions recur, and one balance checkpoint per account every 1024 postings.
+ * <p>
+ * Each account also gets an index of the positions of its records, in direct memory
+ * too, so a General Ledger view reads an account's postings without scanning the
+ * rest of the book. Running balances are computed on demand from the nearest checkpoint.
+ * <p>
+ * Record layout (little endian):
+ * <pre>
+ *   0  amount      long  unscaled value of the BigDecimal amount
+ *   8  linked      long  sequence of the reversal / reversed transaction, or -1
+ *  16  epochDay    int
+ *  20  debitId     int   index into the Chart of Accounts
+ *  24  creditId    int
+ *  28  meta        int   bits 0-23 description id, 24-26 flags, 27-31 amount scale
+ * </pre>
+ * So a store supports up to 2^24 distinct descriptions and amounts with up to 31 decimals.
+ */
+public class OffHeapTransactionStore implements Closeable {
+
+    static final int RECORD_SIZE = 32;
+    private static final int RECORDS_PER_CHUNK = 1 << 21; // 64 MB per chunk
+    private static final long CHUNK_SIZE = (long) RECORDS_PER_CHUNK * RECORD_SIZE;
+
+    private static final int OFFSET_AMOUNT = 0;
+    private static final int OFFSET_LINKED = 8;
+    private static final int OFFSET_DATE = 16;
+    private static final int OFFSET_DEBIT = 20;
+    private static final int OFFSET_CREDIT = 24;
+    private static final int OFFSET_DESCRIPTION = 28;
+
+    private static final int DESCRIPTION_MASK = 0x00FFFFFF;
+    private static final int FLAG_CLOSING = 1 << 24;
+    private static final int FLAG_REVERSAL = 1 << 25; // linked = the transaction this entry reverses
+    private static final int FLAG_REVERSED = 1 << 26; // linked = the entry that reversed this one
+    private static final int SCALE_SHIFT = 27;        // 5 bits of amount scale (0..31)
+    private static final int MAX_SCALE = 31;
+
+    private static final int POSITIONS_PER_CHUNK = 1 << 16; // 512 KB per chunk
+    private static final int CHECKPOINT_INTERVAL = 1024;
+
+    private final FileChannel channel; // Null when the store lives in anonymous memory
+    private final List<ByteBuffer> chunks;
+    private final List<String> descriptions;
+    private final Map<String, Integer> descriptionIds;
+    private final List<AccountIndex> accountIndexes; // By account id
+    private long size;
+
+    /**
+     * Creates a store backed by direct (anonymous) memory.
+     */
+    public OffHeapTransactionStore() {
+        this.channel = null;
+        this.chunks = new ArrayList<>();
+        this.descriptions = new ArrayList<>();
+        this.descriptionIds = new HashMap<>();
+        this.accountIndexes = new ArrayList<>();
+    }
+
+    /**
+     * Creates a store backed by a memory-mapped scratch file.
+     * Any existing content of the file is discarded.
+     */
+    public OffHeapTransactionStore(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.chunks = new ArrayList<>();
+        this.descriptions = new ArrayList<>();
+        this.descriptionIds = new HashMap<>();
+        this.accountIndexes = new ArrayList<>();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Appends a record.
+     * @return The index (= sequence number) of the new record.
+     */
+    public long append(LocalDate date, int debitId, int creditId, BigDecimal amount, String description,
+                       long linkedSequence, boolean reversal, boolean closingEntry) {
+        checkAppendable(date, amount, description);
+        amount = normalize(amount);
+        long unscaled = amount.unscaledValue().longValue();
+
+        int meta = descriptionId(description) | (amount.scale() << SCALE_SHIFT);
+        if (reversal) {
+            meta |= FLAG_REVERSAL;
+        }
+        if (closingEntry) {
+            meta |= FLAG_CLOSING;
+        }
+
+        long index = size;
+        ByteBuffer chunk = chunkFor(index);
+        int offset = offsetOf(index);
+        chunk.putLong(offset + OFFSET_AMOUNT, unscaled);
+        chunk.putLong(offset + OFFSET_LINKED, linkedSequence);
+        chunk.putInt(offset + OFFSET_DATE, (int) date.toEpochDay());
+        chunk.putInt(offset + OFFSET_DEBIT, debitId);
+        chunk.putInt(offset + OFFSET_CREDIT, creditId);
+        chunk.putInt(offset + OFFSET_DESCRIPTION, meta);
+        size++;
+
+        // A posting between an account and itself does not move its balance
+        BigDecimal netDebit = debitId == creditId ? BigDecimal.ZERO : amount;
+        accountIndex(debitId).add(index, netDebit);
+        accountIndex(creditId).add(index, netDebit.negate());
+        return index;
+    }
+
+    /**
+     * Checks that a record with this date, amount and description fits, without storing anything.
+     * @throws IllegalArgumentException If the date or amount does not fit in a record.
+     * @throws IllegalStateException If the description dictionary is full.
+     */
+    public void checkAppendable(LocalDate date, BigDecimal amount, String description) {
+        if (date.toEpochDay() != (int) date.toEpochDay()) {
+            throw new IllegalArgumentException("Date is out of range for the off-heap store: " + date);
+        }
+        BigDecimal normalized = normalize(amount);
+        if (normalized.scale() > MAX_SCALE) {
+            throw new IllegalArgumentException("Amount has too many decimal places for the off-heap store: " + amount);
+        }
+        if (normalized.unscaledValue().bitLength() > 63) {
+            throw new IllegalArgumentException("Amount is too large for the off-heap store: " + amount);
+        }
+        if (!descriptionIds.containsKey(description) && descriptions.size() > DESCRIPTION_MASK) {
+            throw new IllegalStateException("Too many distinct descriptions for the off-heap store.");
+        }
+    }
+
+    private static BigDecimal normalize(BigDecimal amount) {
+        return amount.scale() < 0 ? amount.setScale(0) : amount;
+    }
+
+    /**
+     * Records that the transaction at the given index was reversed by another one.
+     */
+    public void markReversed(long index, long reversalSequence) {
+        ByteBuffer chunk = chunks.get(chunkIndex(index));
+        int offset = offsetOf(index);
+        chunk.putLong(offset + OFFSET_LINKED, reversalSequence);
+        chunk.putInt(offset + OFFSET_DESCRIPTION, chunk.getInt(offset + OFFSET_DESCRIPTION) | FLAG_REVERSED);
+    }
+
+    /**
+     * Creates a reusable cursor for scanning records without allocating per record.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Materializes the record at the given index as a Transaction.
+     * @param accounts The Chart of Accounts the account ids refer to.
+     */
+    public Transaction get(long index, List<Account> accounts) {
+        Cursor cursor = new Cursor();
+        cursor.moveTo(index);
+        return cursor.toTransaction(accounts);
+    }
+
+    /**
+     * A read-only List view for table models. Rows are materialized only when asked
+     * for, so a JTable only ever creates Transactions for the rows it paints.
+     */
+    public List<Transaction> asList(List<Account> accounts) {
+        return new AbstractList<Transaction>() {
+            @Override
+            public Transaction get(int index) {
+                return OffHeapTransactionStore.this.get(index, accounts);
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, OffHeapTransactionStore.this.size);
+            }
+        };
+    }
+
+    /**
+     * A read-only List view of the records that debit or credit an account, in sequence
+     * order. It covers the records appended so far; rows are materialized only when asked for.
+     * @param accountId The account's index in the Chart of Accounts.
+     */
+    public List<Transaction> asAccountList(int accountId, List<Account> accounts) {
+        AccountIndex index = accountId < accountIndexes.size() ? accountIndexes.get(accountId) : null;
+        int rows = index == null ? 0 : (int) Math.min(Integer.MAX_VALUE, index.size);
+        return new AbstractList<Transaction>() {
+            @Override
+            public Transaction get(int row) {
+                checkRow(row, rows);
+                return OffHeapTransactionStore.this.get(index.positionOf(row), accounts);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    /**
+     * A read-only List view of an account's balance after each of its records, in the
+     * same order as asAccountList(). Each balance is computed when asked for, from the
+     * nearest checkpoint, so reading one costs at most CHECKPOINT_INTERVAL record reads.
+     */
+    public List<BigDecimal> asRunningBalanceList(int accountId, List<Account> accounts) {
+        AccountIndex index = accountId < accountIndexes.size() ? accountIndexes.get(accountId) : null;
+        int rows = index == null ? 0 : (int) Math.min(Integer.MAX_VALUE, index.size);
+        Account account = accounts.get(accountId);
+        return new AbstractList<BigDecimal>() {
+            @Override
+            public BigDecimal get(int row) {
+                checkRow(row, rows);
+                return account.signedAmount(index.netDebitThrough(row, accountId, new Cursor()), true);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    private static void checkRow(int row, int rows) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+    }
+
+    private AccountIndex accountIndex(int accountId) {
+        while (accountIndexes.size() <= accountId) {
+            accountIndexes.add(new AccountIndex());
+        }
+        return accountIndexes.get(accountId);
+    }
+
+    private int descriptionId(String description) {
+        Integer id = descriptionIds.get(description);
+        if (id == null) {
+            id = descriptions.size();
+            if (id > DESCRIPTION_MASK) {
+                throw new IllegalStateException("Too many distinct descriptions for the off-heap store.");
+            }
+            descriptions.add(description);
+            descriptionIds.put(description, id);
+        }
+        return id;
+    }
+
+    private ByteBuffer chunkFor(long index) {
+        int chunkIndex = chunkIndex(index);
+        while (chunks.size() <= chunkIndex) {
+            chunks.add(allocateChunk(chunks.size()));
+        }
+        return chunks.get(chunkIndex);
+    }
+
+    private ByteBuffer allocateChunk(int chunkIndex) {
+        ByteBuffer chunk;
+        if (channel == null) {
+            chunk = ByteBuffer.allocateDirect((int) CHUNK_SIZE);
+        } else {
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkIndex * CHUNK_SIZE, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map transaction store chunk #" + chunkIndex, e);
+            }
+        }
+        return chunk.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int chunkIndex(long index) {
+        return (int) (index / RECORDS_PER_CHUNK);
+    }
+
+    private static int offsetOf(long index) {
+        return (int) (index % RECORDS_PER_CHUNK) * RECORD_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * The positions of one account's records in direct memory, plus the account's net
+     * debit (debits minus credits) before every CHECKPOINT_INTERVAL-th of them.
+     */
+    private static class AccountIndex {
+        private final List<LongBuffer> positions = new ArrayList<>();
+        private final List<BigDecimal> checkpoints = new ArrayList<>();
+        private BigDecimal netDebit = BigDecimal.ZERO;
+        private long size;
+
+        void add(long position, BigDecimal netDebitChange) {
+            if (size % CHECKPOINT_INTERVAL == 0) {
+                checkpoints.add(netDebit);
+            }
+            if (size % POSITIONS_PER_CHUNK == 0) {
+                positions.add(ByteBuffer.allocateDirect(POSITIONS_PER_CHUNK * Long.BYTES).asLongBuffer());
+            }
+            positions.get((int) (size / POSITIONS_PER_CHUNK)).put((int) (size % POSITIONS_PER_CHUNK), position);
+            netDebit = netDebit.add(netDebitChange);
+            size++;
+        }
+
+        long positionOf(long row) {
+            return positions.get((int) (row / POSITIONS_PER_CHUNK)).get((int) (row % POSITIONS_PER_CHUNK));
+        }
+
+        /**
+         * @return The net debit after the account's record at the given row.
+         */
+        BigDecimal netDebitThrough(long row, int accountId, Cursor cursor) {
+            long first = row / CHECKPOINT_INTERVAL * CHECKPOINT_INTERVAL;
+            BigDecimal result = checkpoints.get((int) (row / CHECKPOINT_INTERVAL));
+            for (long i = first; i <= row; i++) {
+                cursor.moveTo(positionOf(i));
+                if (cursor.getDebitId() != cursor.getCreditId()) {
+                    BigDecimal amount = cursor.getAmount();
+                    result = result.add(cursor.getDebitId() == accountId ? amount : amount.negate());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A flyweight over one record at a time. Move it with moveTo() and read the fields
+     * directly from off-heap memory; nothing is allocated until toTransaction() is called.
+     */
+    public class Cursor {
+        private ByteBuffer chunk;
+        private int offset;
+        private long index;
+
+        public void moveTo(long index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+            }
+            this.index = index;
+            this.chunk = chunks.get(chunkIndex(index));
+            this.offset = offsetOf(index);
+        }
+
+        public long getSequence() {
+            return index;
+        }
+
+        public long getEpochDay() {
+            return chunk.getInt(offset + OFFSET_DATE);
+        }
+
+        public int getDebitId() {
+            return chunk.getInt(offset + OFFSET_DEBIT);
+        }
+
+        public int getCreditId() {
+            return chunk.getInt(offset + OFFSET_CREDIT);
+        }
+
+        public long getUnscaledAmount() {
+            return chunk.getLong(offset + OFFSET_AMOUNT);
+        }
+
+        public int getAmountScale() {
+            return chunk.getInt(offset + OFFSET_DESCRIPTION) >>> SCALE_SHIFT;
+        }
+
+        public BigDecimal getAmount() {
+            return BigDecimal.valueOf(getUnscaledAmount(), getAmountScale());
+        }
+
+        public String getDescription() {
+            return descriptions.get(chunk.getInt(offset + OFFSET_DESCRIPTION) & DESCRIPTION_MASK);
+        }
+
+        public boolean isClosingEntry() {
+            return (chunk.getInt(offset + OFFSET_DESCRIPTION) & FLAG_CLOSING) != 0;
+        }
+
+        public boolean isReversal() {
+            return (chunk.getInt(offset + OFFSET_DESCRIPTION) & FLAG_REVERSAL) != 0;
+        }
+
+        public boolean isReversed() {
+            return (chunk.getInt(offset + OFFSET_DESCRIPTION) & FLAG_REVERSED) != 0;
+        }
+
+        public long getLinkedSequence() {
+            return chunk.getLong(offset + OFFSET_LINKED);
+        }
+
+        /**
+         * Copies the current record into a standalone Transaction.
+         * Reversal links are filled in one level deep.
+         */
+        public Transaction toTransaction(List<Account> accounts) {
+            Transaction tx = new Transaction(index, LocalDate.ofEpochDay(getEpochDay()), getDescription(),
+                    accounts.get(getDebitId()), accounts.get(getCreditId()), getAmount());
+            tx.setClosingEntry(isClosingEntry());
+            if (isReversal() || isReversed()) {
+                Cursor linked = new Cursor();
+                linked.moveTo(getLinkedSequence());
+                Transaction other = new Transaction(linked.index, LocalDate.ofEpochDay(linked.getEpochDay()), linked.getDescription(),
+                        accounts.get(linked.getDebitId()), accounts.get(linked.getCreditId()), linked.getAmount());
+                if (isReversal()) {
+                    tx.setReversalOf(other);
+                } else {
+                    tx.setReversedBy(other);
+                }
+            }
+            return tx;
+        }
+    }
+}
+
@@ -0,0 +1,150 @@
+package accounting;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Pre-aggregated debit/credit totals per account per day, month and year,
+ * maintained as transactions are posted.
+ * <p>
+ * A period query is split into whole years, whole months and the leftover days at
+ * either end, so its cost depends on the number of buckets touched, never on the
+ * number of transactions. Closing entries are left out, so income statements for
+ * closed periods still show the period's real activity.
+ */
+public class PeriodCube implements TransactionListener {
+
+    private final Map<Account, AccountBuckets> buckets;
+
+    public PeriodCube() {
+        this.buckets = new HashMap<>();
+    }
+
+    @Override
+    public synchronized void transactionPosted(Transaction transaction) {
+        if (transaction.isClosingEntry()) {
+            return;
+        }
+        bucketsFor(transaction.getDebitAccount()).add(transaction.getDate(), transaction.getAmount(), true);
+        bucketsFor(transaction.getCreditAccount()).add(transaction.getDate(), transaction.getAmount(), false);
+    }
+
+    private AccountBuckets bucketsFor(Account account) {
+        return buckets.computeIfAbsent(account, a -> new AccountBuckets());
+    }
+
+    /**
+     * Gets an account's debit and credit totals for the dates between from and to (inclusive).
+     */
+    public synchronized Totals getTotals(Account account, LocalDate from, LocalDate to) {
+        Totals result = new Totals();
+        AccountBuckets accountBuckets = buckets.get(account);
+        if (accountBuckets == null || from.isAfter(to)) {
+            return result;
+        }
+
+        LocalDate cursor = from;
+        while (!cursor.isAfter(to)) {
+            LocalDate yearEnd = cursor.withDayOfYear(cursor.lengthOfYear());
+            LocalDate monthEnd = cursor.withDayOfMonth(cursor.lengthOfMonth());
+
+            if (cursor.getDayOfYear() == 1 && !yearEnd.isAfter(to)) {
+                // A whole year
+                result.add(accountBuckets.years.get(cursor.getYear()));
+                cursor = yearEnd.plusDays(1);
+            } else if (cursor.getDayOfMonth() == 1 && !monthEnd.isAfter(to)) {
+                // A whole month
+                result.add(accountBuckets.months.get(YearMonth.from(cursor)));
+                cursor = monthEnd.plusDays(1);
+            } else {
+                // The leftover days of a month
+                LocalDate end = monthEnd.isAfter(to) ? to : monthEnd;
+                for (Totals day : accountBuckets.days.subMap(cursor, true, end, true).values()) {
+                    result.add(day);
+                }
+                cursor = end.plusDays(1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the change in an account's balance over a period.
+     */
+    public BigDecimal getNetChange(Account account, LocalDate from, LocalDate to) {
+        return getTotals(account, from, to).getNetChange(account);
+    }
+
+    /**
+     * Gets the change in an account's balance for each month in a range, for trend reports.
+     */
+    public synchronized Map<YearMonth, BigDecimal> getMonthlyTrend(Account account, YearMonth from, YearMonth to) {
+        Map<YearMonth, BigDecimal> trend = new LinkedHashMap<>();
+        AccountBuckets accountBuckets = buckets.get(account);
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            Totals totals = accountBuckets == null ? null : accountBuckets.months.get(month);
+            trend.put(month, totals == null ? BigDecimal.ZERO : totals.getNetChange(account));
+        }
+        return trend;
+    }
+
+    /**
+     * The day, month and year buckets of a single account.
+     */
+    private static class AccountBuckets {
+        private final NavigableMap<LocalDate, Totals> days = new TreeMap<>();
+        private final Map<YearMonth, Totals> months = new HashMap<>();
+        private final Map<Integer, Totals> years = new HashMap<>();
+
+        void add(LocalDate date, BigDecimal amount, boolean isDebit) {
+            days.computeIfAbsent(date, d -> new Totals()).add(amount, isDebit);
+            months.computeIfAbsent(YearMonth.from(date), m -> new Totals()).add(amount, isDebit);
+            years.computeIfAbsent(date.getYear(), y -> new Totals()).add(amount, isDebit);
+        }
+    }
+
+    /**
+     * Debit and credit totals of one bucket (or of a whole query).
+     */
+    public static class Totals {
+        private BigDecimal debit = BigDecimal.ZERO;
+        private BigDecimal credit = BigDecimal.ZERO;
+
+        void add(BigDecimal amount, boolean isDebit) {
+            if (isDebit) {
+                debit = debit.add(amount);
+            } else {
+                credit = credit.add(amount);
+            }
+        }
+
+        void add(Totals other) {
+            if (other != null) {
+                debit = debit.add(other.debit);
+                credit = credit.add(other.credit);
+            }
+        }
+
+        public BigDecimal getDebit() {
+            return debit;
+        }
+
+        public BigDecimal getCredit() {
+            return credit;
+        }
+
+        /**
+         * @return The effect of these totals on the account's balance.
+         */
+        public BigDecimal getNetChange(Account account) {
+            return account.signedAmount(debit, true).add(account.signedAmount(credit, false));
+        }
+    }
+}
+
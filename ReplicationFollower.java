@@ -0,0 +1,247 @@
+package accounting;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.function.Function;
+
+/**
+ * A read-only copy of an AccountingEngine kept up to date from a ReplicationPrimary.
+ *
+ * Postings are applied strictly in commit order on a background thread. Reports
+ * should be run through query(), which sees the replica between postings, never
+ * in the middle of one. If the connection drops, the follower reconnects and
+ * resumes from the last applied sequence.
+ *
+ * Whenever the replica has applied everything up to a heartbeat's head, including
+ * right after the catch-up replay on start, its Merkle root is compared with the
+ * primary's. On a mismatch, or on a posting the replica cannot apply, the follower
+ * stops applying and reports itself diverged.
+ */
+public class ReplicationFollower implements Closeable {
+
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final AccountingEngine engine;
+    private final Thread applyThread;
+
+    private volatile boolean closed;
+    private volatile boolean connected;
+    private volatile boolean diverged;
+    private volatile long verifiedSequence;    // Postings covered by the last matching root
+    private volatile long appliedSequence;     // Number of postings applied so far
+    private volatile long primaryHeadSequence; // Last head reported by the primary
+    private volatile long lastAppliedCommitMillis;
+
+    public ReplicationFollower(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.engine = new AccountingEngine();
+        this.engine.setReadOnly(true);
+        this.applyThread = new Thread(this::run, "replication-follower");
+        this.applyThread.setDaemon(true);
+    }
+
+    public void start() {
+        applyThread.start();
+    }
+
+    /**
+     * Runs a read-only query against the replica.
+     * The query never observes a half-applied posting.
+     */
+    public <T> T query(Function<AccountingEngine, T> query) {
+        synchronized (engine) {
+            return query.apply(engine);
+        }
+    }
+
+    /**
+     * Gets a consistent view of the replica's balances without waiting for the apply thread.
+     */
+    public LedgerSnapshot snapshot() {
+        return engine.snapshot();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * @return How many postings are proven identical to the primary's by a matching Merkle root.
+     */
+    public long getVerifiedSequence() {
+        return verifiedSequence;
+    }
+
+    /**
+     * @return True if the replica's Merkle root did not match the primary's, or a posting
+     * could not be applied. No more postings are applied.
+     */
+    public boolean isDiverged() {
+        return diverged;
+    }
+
+    /**
+     * @return How many committed postings the replica has not applied yet.
+     */
+    public long getLagTransactions() {
+        return Math.max(0, primaryHeadSequence - appliedSequence);
+    }
+
+    /**
+     * @return How far behind the primary the replica is, in milliseconds.
+     * Zero when every posting the primary has reported is applied.
+     */
+    public long getLagMillis() {
+        if (getLagTransactions() == 0) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - lastAppliedCommitMillis);
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket socket = new Socket(host, port);
+                 DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+
+                out.writeLong(appliedSequence);
+                out.flush();
+                connected = true;
+                readStream(in);
+            } catch (EOFException e) {
+                // Primary closed the stream; try again below.
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Replication connection failed: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // The replica can no longer follow the log; reconnecting would only fail again
+                diverged = true;
+                System.err.println("Replica stopped at #" + appliedSequence + ": could not apply the stream: " + e);
+                close();
+            } finally {
+                connected = false;
+            }
+
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void readStream(DataInputStream in) throws IOException {
+        while (!closed) {
+            byte type = in.readByte();
+            if (type == ReplicationPrimary.MSG_HEARTBEAT) {
+                primaryHeadSequence = in.readLong();
+                in.readLong(); // sentMillis, currently unused
+                byte[] primaryRoot = new byte[MerkleLog.HASH_SIZE];
+                in.readFully(primaryRoot);
+                checkRoot(primaryHeadSequence, primaryRoot);
+            } else if (type == ReplicationPrimary.MSG_TRANSACTION) {
+                long sequence = in.readLong();
+                long commitMillis = in.readLong();
+                LocalDate date = LocalDate.ofEpochDay(in.readLong());
+                String description = in.readUTF();
+                String debitName = in.readUTF();
+                String creditName = in.readUTF();
+                BigDecimal amount = new BigDecimal(in.readUTF());
+                long reversalOf = in.readLong();
+                boolean closingEntry = in.readBoolean();
+                String idempotencyKey = in.readBoolean() ? in.readUTF() : null;
+                Currency currency = null;
+                BigDecimal originalAmount = null;
+                if (in.readBoolean()) {
+                    currency = Currency.getInstance(in.readUTF());
+                    originalAmount = new BigDecimal(in.readUTF());
+                }
+                apply(sequence, commitMillis, date, description, debitName, creditName, amount, reversalOf, closingEntry,
+                        idempotencyKey, currency, originalAmount);
+            } else {
+                throw new IOException("Unknown replication message type: " + type);
+            }
+        }
+    }
+
+    private void apply(long sequence, long commitMillis, LocalDate date, String description,
+                       String debitName, String creditName, BigDecimal amount, long reversalOf, boolean closingEntry,
+                       String idempotencyKey, Currency currency, BigDecimal originalAmount) throws IOException {
+        if (sequence < appliedSequence) {
+            return; // Already applied before a reconnect
+        }
+        synchronized (engine) {
+            Account debit = engine.findAccount(debitName);
+            Account credit = engine.findAccount(creditName);
+            if (debit == null || credit == null) {
+                throw new IOException("Posting #" + sequence + " refers to an unknown account.");
+            }
+            engine.applyReplicated(sequence, date, description, debit, credit, amount, reversalOf, closingEntry, idempotencyKey,
+                    currency, originalAmount);
+        }
+        lastAppliedCommitMillis = commitMillis;
+        appliedSequence = sequence + 1;
+        primaryHeadSequence = Math.max(primaryHeadSequence, appliedSequence);
+    }
+
+    /**
+     * Compares the replica's Merkle root with the primary's, once the replica has caught up to it.
+     */
+    private void checkRoot(long head, byte[] primaryRoot) {
+        if (head != appliedSequence) {
+            return; // Still replaying; checked at a later heartbeat
+        }
+        byte[] root = engine.getMerkleLog().getRoot(head);
+        if (MessageDigest.isEqual(root, primaryRoot)) {
+            verifiedSequence = head;
+        } else {
+            diverged = true;
+            System.err.println("Replica diverged from the primary at #" + head + ": root "
+                    + MerkleLog.toHex(root) + " but the primary has " + MerkleLog.toHex(primaryRoot));
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        applyThread.interrupt();
+    }
+
+    /**
+     * Runs a follower as its own process and prints its state every second.
+     * Usage: ReplicationFollower [host] port
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length > 1 ? args[0] : "localhost";
+        int port = Integer.parseInt(args[args.length - 1]);
+
+        ReplicationFollower follower = new ReplicationFollower(host, port);
+        follower.start();
+        while (true) {
+            Thread.sleep(1000);
+            LedgerSnapshot snapshot = follower.snapshot();
+            System.out.printf("connected=%s applied=%d verified=%d diverged=%s lag=%d tx / %d ms totalAssets=%s%n",
+                    follower.isConnected(), follower.getAppliedSequence(), follower.getVerifiedSequence(), follower.isDiverged(),
+                    follower.getLagTransactions(), follower.getLagMillis(), snapshot.getTotalAssets().toPlainString());
+        }
+    }
+}
+
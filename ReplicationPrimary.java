@@ -0,0 +1,246 @@
+package accounting;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the committed transaction log of an AccountingEngine to follower engines.
+ *
+ * Followers connect over a loopback TCP socket and send the sequence number they
+ * want to resume from. The primary replies with the backlog from that point and
+ * then forwards every new posting as it is committed. A heartbeat carrying the
+ * primary's head sequence is sent every second so followers can report their lag.
+ * It also carries the Merkle root at that head, so a follower that has caught up
+ * can prove its replayed copy matches the primary's books exactly.
+ * <p>
+ * Memory stays bounded however long the primary runs. Only the most recent
+ * RECENT_POSTINGS postings are kept for followers; a follower resuming from further
+ * back is replayed in chunks read from the engine itself (memory, the off-heap store
+ * or period archives). Each follower's queue of live postings holds at most
+ * FOLLOWER_QUEUE_CAPACITY; a follower that falls that far behind is disconnected and,
+ * like after any dropped connection, resumes from its last applied sequence.
+ *
+ * Wire format (DataOutputStream):
+ *   'T' seq:long commitMillis:long epochDay:long description:UTF debit:UTF credit:UTF amount:UTF reversalOf:long closing:boolean
+ *       hasKey:boolean [idempotencyKey:UTF] hasCurrency:boolean [currency:UTF originalAmount:UTF]
+ *   'H' headSeq:long sentMillis:long merkleRoot:32 bytes
+ */
+public class ReplicationPrimary implements TransactionListener, Closeable {
+
+    static final byte MSG_TRANSACTION = 'T';
+    static final byte MSG_HEARTBEAT = 'H';
+    static final long HEARTBEAT_INTERVAL_MS = 1000;
+    static final int RECENT_POSTINGS = 1 << 16;
+    static final int FOLLOWER_QUEUE_CAPACITY = 1 << 16;
+    private static final int REPLAY_CHUNK = 4096;
+
+    private final AccountingEngine engine;
+    private final MerkleLog merkleLog;
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final long startMillis;
+
+    // The most recent postings, as a ring indexed by sequence. Guarded by "this".
+    private final LogRecord[] recent;
+    private final long firstRecorded; // Postings before this one were made before the primary started
+    private long head; // Sequence of the next posting
+    private final List<Follower> followers;
+    private volatile boolean closed;
+
+    /**
+     * Starts a primary for the given engine, listening on the loopback interface.
+     * Must be called on the thread that posts to the engine.
+     * @param port The TCP port to listen on, or 0 to pick a free one.
+     */
+    public ReplicationPrimary(AccountingEngine engine, int port) throws IOException {
+        this.engine = engine;
+        this.merkleLog = engine.getMerkleLog();
+        this.startMillis = System.currentTimeMillis();
+        this.recent = new LogRecord[RECENT_POSTINGS];
+        this.firstRecorded = merkleLog.size();
+        this.head = firstRecorded;
+        this.followers = new CopyOnWriteArrayList<>();
+        engine.addTransactionListener(this);
+
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.acceptThread = new Thread(this::acceptLoop, "replication-accept");
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized long getHeadSequence() {
+        return head;
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    @Override
+    public synchronized void transactionPosted(Transaction transaction) {
+        long reversalOf = transaction.getReversalOf() != null ? transaction.getReversalOf().getSequence() : -1;
+        LogRecord record = new LogRecord(transaction, System.currentTimeMillis(), reversalOf);
+        recent[(int) (head++ % RECENT_POSTINGS)] = record;
+        for (Follower follower : followers) {
+            if (!follower.queue.offer(record)) {
+                // Too far behind: cut it loose rather than queue without bound
+                follower.dropped = true;
+                followers.remove(follower);
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread sender = new Thread(() -> serveFollower(socket), "replication-sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serveFollower(Socket socket) {
+        Follower follower = new Follower();
+        BlockingQueue<LogRecord> queue = follower.queue;
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(s.getInputStream());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+
+            long next = Math.max(in.readLong(), 0);
+
+            // Replay from the engine until the follower is within the recent postings, then
+            // register for live postings and copy the rest atomically, so nothing falls
+            // between the two.
+            List<LogRecord> backlog = null;
+            while (backlog == null) {
+                synchronized (this) {
+                    if (next >= Math.max(firstRecorded, head - RECENT_POSTINGS)) {
+                        backlog = new ArrayList<>();
+                        for (long sequence = next; sequence < head; sequence++) {
+                            backlog.add(recent[(int) (sequence % RECENT_POSTINGS)]);
+                        }
+                        followers.add(follower);
+                    }
+                }
+                if (backlog == null) {
+                    for (Transaction tx : engine.getTransactionsFrom(next, REPLAY_CHUNK)) {
+                        // The commit time of old postings is not kept; the start time errs towards more lag
+                        writeRecord(out, new LogRecord(tx, startMillis, engine.getReversalOfSequence(tx.getSequence())));
+                        next++;
+                    }
+                    out.flush();
+                }
+            }
+
+            for (LogRecord record : backlog) {
+                writeRecord(out, record);
+            }
+            writeHeartbeat(out);
+            out.flush();
+
+            while (!closed && !follower.dropped) {
+                LogRecord record = queue.poll(HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    writeHeartbeat(out);
+                } else {
+                    writeRecord(out, record);
+                    // Batch up anything else that is already waiting before flushing
+                    while ((record = queue.poll()) != null) {
+                        writeRecord(out, record);
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Follower went away; it will resume from its last applied sequence.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, LogRecord record) throws IOException {
+        Transaction tx = record.transaction;
+        out.writeByte(MSG_TRANSACTION);
+        out.writeLong(tx.getSequence());
+        out.writeLong(record.commitMillis);
+        out.writeLong(tx.getDate().toEpochDay());
+        out.writeUTF(tx.getDescription());
+        out.writeUTF(tx.getDebitAccount().getName());
+        out.writeUTF(tx.getCreditAccount().getName());
+        out.writeUTF(tx.getAmount().toPlainString());
+        out.writeLong(record.reversalOfSequence);
+        out.writeBoolean(tx.isClosingEntry());
+        out.writeBoolean(tx.getIdempotencyKey() != null);
+        if (tx.getIdempotencyKey() != null) {
+            out.writeUTF(tx.getIdempotencyKey());
+        }
+        out.writeBoolean(tx.isForeignCurrency());
+        if (tx.isForeignCurrency()) {
+            out.writeUTF(tx.getCurrency().getCurrencyCode());
+            out.writeUTF(tx.getOriginalAmount().toPlainString());
+        }
+    }
+
+    private void writeHeartbeat(DataOutputStream out) throws IOException {
+        long head = getHeadSequence();
+        out.writeByte(MSG_HEARTBEAT);
+        out.writeLong(head);
+        out.writeLong(System.currentTimeMillis());
+        out.write(merkleLog.getRoot(head));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    /**
+     * A committed transaction together with the wall-clock time it was committed,
+     * used by followers to compute their replication lag.
+     */
+    private static class LogRecord {
+        private final Transaction transaction;
+        private final long commitMillis;
+        private final long reversalOfSequence; // Archived copies carry no reversal link
+
+        LogRecord(Transaction transaction, long commitMillis, long reversalOfSequence) {
+            this.transaction = transaction;
+            this.commitMillis = commitMillis;
+            this.reversalOfSequence = reversalOfSequence;
+        }
+    }
+
+    /**
+     * The live postings waiting to be sent to one follower.
+     */
+    private static class Follower {
+        private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(FOLLOWER_QUEUE_CAPACITY);
+        private volatile boolean dropped;
+    }
+}
+
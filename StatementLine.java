@@ -0,0 +1,63 @@
+package accounting;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single line of an imported bank statement.
+ */
+public class StatementLine {
+    private final LocalDate date;
+    private final String description;
+    private final BigDecimal amount; // Effect on the account's balance: positive for deposits, negative for withdrawals
+
+    public StatementLine(LocalDate date, String description, BigDecimal amount) {
+        this.date = date;
+        this.description = description;
+        this.amount = amount;
+    }
+
+    /**
+     * Reads statement lines from a CSV file with lines of the form
+     * {@code date,description,amount}, where the date is in ISO format (2024-01-31).
+     * The description may itself contain commas. Blank lines and a header line
+     * starting with "date" are skipped.
+     */
+    public static List<StatementLine> readCsv(Path file) throws IOException {
+        List<StatementLine> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.regionMatches(true, 0, "date", 0, 4)) {
+                continue;
+            }
+            int first = line.indexOf(',');
+            int last = line.lastIndexOf(',');
+            if (first < 0 || first == last) {
+                throw new IOException("Expected date,description,amount but got: " + line);
+            }
+            lines.add(new StatementLine(LocalDate.parse(line.substring(0, first).trim()),
+                    line.substring(first + 1, last).trim(),
+                    new BigDecimal(line.substring(last + 1).trim())));
+        }
+        return lines;
+    }
+
+    // --- Getters ---
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+}
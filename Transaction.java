@@ -2,18 +2,28 @@ package accounting;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Currency;
 
 /**
  * Represents a single, complete transaction (a balanced debit and credit).
  */
 public class Transaction {
+    private long sequence; // Position in the engine's commit order
     private LocalDate date;
     private String description;
     private Account debitAccount;
     private Account creditAccount;
-    private BigDecimal amount;
+    private BigDecimal amount;      // In the functional currency (PHP)
+    private Currency currency;      // Currency the entry was made in, null for the functional currency
+    private BigDecimal originalAmount; // Amount in that currency, null for the functional currency
+    private Transaction reversalOf; // Set on a reversing entry: the transaction it voids
+    private Transaction reversedBy; // Set on a voided transaction: the entry that reversed it
+    private boolean closingEntry;   // True for entries generated by a period close
+    private String idempotencyKey;  // Upstream key used to reject re-delivered entries, may be null
+    private boolean cleared;        // True once matched to a bank statement line
 
-    public Transaction(LocalDate date, String description, Account debitAccount, Account creditAccount, BigDecimal amount) {
+    public Transaction(long sequence, LocalDate date, String description, Account debitAccount, Account creditAccount, BigDecimal amount) {
+        this.sequence = sequence;
         this.date = date;
         this.description = description;
         this.debitAccount = debitAccount;
@@ -22,6 +32,10 @@ public class Transaction {
     }
 
     // --- Getters ---
+    public long getSequence() {
+        return sequence;
+    }
+
     public LocalDate getDate() {
         return date;
     }
@@ -41,5 +55,73 @@ public class Transaction {
     public BigDecimal getAmount() {
         return amount;
     }
+
+    /**
+     * @return The currency the entry was made in.
+     */
+    public Currency getCurrency() {
+        return currency != null ? currency : AccountingEngine.FUNCTIONAL_CURRENCY;
+    }
+
+    /**
+     * @return The amount in the currency the entry was made in.
+     */
+    public BigDecimal getOriginalAmount() {
+        return originalAmount != null ? originalAmount : amount;
+    }
+
+    public boolean isForeignCurrency() {
+        return currency != null;
+    }
+
+    public Transaction getReversalOf() {
+        return reversalOf;
+    }
+
+    public Transaction getReversedBy() {
+        return reversedBy;
+    }
+
+    public boolean isReversed() {
+        return reversedBy != null;
+    }
+
+    public boolean isClosingEntry() {
+        return closingEntry;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    // --- Maintained by AccountingEngine ---
+    void setReversalOf(Transaction reversalOf) {
+        this.reversalOf = reversalOf;
+    }
+
+    void setReversedBy(Transaction reversedBy) {
+        this.reversedBy = reversedBy;
+    }
+
+    void setClosingEntry(boolean closingEntry) {
+        this.closingEntry = closingEntry;
+    }
+
+    void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    void setCleared(boolean cleared) {
+        this.cleared = cleared;
+    }
+
+    void setOriginalAmount(Currency currency, BigDecimal originalAmount) {
+        this.currency = currency;
+        this.originalAmount = originalAmount;
+    }
 }
 
@@ -0,0 +1,523 @@
+package accounting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Compact block file format for transaction history, with a reader that skips the
+ * blocks a date range query cannot need.
+ * <p>
+ * Transactions are written in sequence order, in blocks of up to 4096. Inside a block
+ * every field is relative to the one before it: sequences and dates are stored as
+ * varint deltas (nearly always one byte), accounts as small varint ids, amounts as
+ * varint unscaled values, and descriptions as ids into a dictionary kept per block, so
+ * a recurring description is stored once per block. An index at the end of the file
+ * holds each block's position and its earliest and latest date; the reader consults
+ * it before touching a block.
+ * <p>
+ * Reversal links are not kept, as with the previous archive format.
+ *
+ * File layout (varints are unsigned LEB128; "zigzag" marks signed ones):
+ *   magic:int accountCount:varint accountCount x name:bytes
+ *   blocks
+ *   blockCount:varint blockCount x (offset:varint length:varint count:varint firstSequence:varint minDay:zigzag maxDay:zigzag)
+ *   indexOffset:long
+ * Block:
+ *   dictionarySize:varint dictionarySize x description:bytes
+ *   count x (sequenceGap:varint dayDelta:zigzag flags:byte debit:varint credit:varint description:varint amount
+ *            [currency:bytes originalAmount])
+ * The first row's dayDelta is its full epoch day. Amount: scale:zigzag unscaled:zigzag, or for
+ * unscaled values beyond 62 bits (flagged) scale:zigzag unscaled:bytes in two's complement.
+ * bytes: length:varint, then the raw bytes (UTF-8 for text)
+ */
+public class TransactionArchive {
+
+    private static final int MAGIC = 0x41435432; // "ACT2"
+    private static final int BLOCK_SIZE = 4096; // Transactions per block
+
+    private static final int FLAG_CLOSING = 1;
+    private static final int FLAG_FOREIGN = 2;
+    private static final int FLAG_BIG_AMOUNT = 4;
+    private static final int FLAG_BIG_ORIGINAL_AMOUNT = 8;
+
+    private final Path file;
+    private final String[] accountNames;
+    private final int blockCount;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockCounts;
+    private final long[] blockFirstSequences;
+    private final long[] blockMinDays;
+    private final long[] blockMaxDays;
+
+    private TransactionArchive(Path file, String[] accountNames, int blockCount) {
+        this.file = file;
+        this.accountNames = accountNames;
+        this.blockCount = blockCount;
+        this.blockOffsets = new long[blockCount];
+        this.blockLengths = new int[blockCount];
+        this.blockCounts = new int[blockCount];
+        this.blockFirstSequences = new long[blockCount];
+        this.blockMinDays = new long[blockCount];
+        this.blockMaxDays = new long[blockCount];
+    }
+
+    // --- Writing ---
+
+    /**
+     * Writes transactions to an archive file.
+     * @param transactions In sequence order.
+     */
+    public static void write(Path file, List<Transaction> transactions) throws IOException {
+        // Account table: only the accounts that actually occur, by name
+        Map<Account, Integer> accountIds = new HashMap<>();
+        ByteSink header = new ByteSink(256);
+        header.putInt(MAGIC);
+        List<String> names = new ArrayList<>();
+        for (Transaction tx : transactions) {
+            for (Account account : new Account[] {tx.getDebitAccount(), tx.getCreditAccount()}) {
+                if (!accountIds.containsKey(account)) {
+                    accountIds.put(account, names.size());
+                    names.add(account.getName());
+                }
+            }
+        }
+        header.putVarLong(names.size());
+        for (String name : names) {
+            header.putString(name);
+        }
+
+        ByteSink index = new ByteSink(64);
+        int blocks = (transactions.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        index.putVarLong(blocks);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            header.writeTo(out);
+            long offset = header.size();
+            ByteSink dictionary = new ByteSink(1 << 14);
+            ByteSink rows = new ByteSink(1 << 16);
+            for (int start = 0; start < transactions.size(); start += BLOCK_SIZE) {
+                List<Transaction> block = transactions.subList(start, Math.min(start + BLOCK_SIZE, transactions.size()));
+                dictionary.clear();
+                rows.clear();
+                long[] dayRange = encodeBlock(block, accountIds, dictionary, rows);
+                dictionary.writeTo(out);
+                rows.writeTo(out);
+
+                int length = dictionary.size() + rows.size();
+                index.putVarLong(offset);
+                index.putVarLong(length);
+                index.putVarLong(block.size());
+                index.putVarLong(block.get(0).getSequence());
+                index.putZigZag(dayRange[0]);
+                index.putZigZag(dayRange[1]);
+                offset += length;
+            }
+            index.putLong(offset);
+            index.writeTo(out);
+        }
+    }
+
+    /**
+     * Encodes one block into its dictionary and its rows.
+     * @return The block's earliest and latest epoch day.
+     */
+    private static long[] encodeBlock(List<Transaction> block, Map<Account, Integer> accountIds,
+                                      ByteSink dictionary, ByteSink rows) {
+        Map<String, Integer> descriptionIds = new HashMap<>();
+        List<String> descriptions = new ArrayList<>();
+        long previousSequence = block.get(0).getSequence() - 1;
+        long previousDay = 0; // The first row holds its full epoch day
+        long minDay = Long.MAX_VALUE;
+        long maxDay = Long.MIN_VALUE;
+
+        for (Transaction tx : block) {
+            long day = tx.getDate().toEpochDay();
+            minDay = Math.min(minDay, day);
+            maxDay = Math.max(maxDay, day);
+            Integer descriptionId = descriptionIds.get(tx.getDescription());
+            if (descriptionId == null) {
+                descriptionId = descriptions.size();
+                descriptionIds.put(tx.getDescription(), descriptionId);
+                descriptions.add(tx.getDescription());
+            }
+            boolean bigAmount = tx.getAmount().unscaledValue().bitLength() > 62;
+            boolean bigOriginal = tx.isForeignCurrency() && tx.getOriginalAmount().unscaledValue().bitLength() > 62;
+            int flags = (tx.isClosingEntry() ? FLAG_CLOSING : 0)
+                    | (tx.isForeignCurrency() ? FLAG_FOREIGN : 0)
+                    | (bigAmount ? FLAG_BIG_AMOUNT : 0)
+                    | (bigOriginal ? FLAG_BIG_ORIGINAL_AMOUNT : 0);
+
+            rows.putVarLong(tx.getSequence() - previousSequence - 1);
+            rows.putZigZag(day - previousDay);
+            rows.putByte(flags);
+            rows.putVarLong(accountIds.get(tx.getDebitAccount()));
+            rows.putVarLong(accountIds.get(tx.getCreditAccount()));
+            rows.putVarLong(descriptionId);
+            rows.putDecimal(tx.getAmount(), bigAmount);
+            if (tx.isForeignCurrency()) {
+                rows.putString(tx.getCurrency().getCurrencyCode());
+                rows.putDecimal(tx.getOriginalAmount(), bigOriginal);
+            }
+            previousSequence = tx.getSequence();
+            previousDay = day;
+        }
+
+        dictionary.putVarLong(descriptions.size());
+        for (String description : descriptions) {
+            dictionary.putString(description);
+        }
+        return new long[] {minDay, maxDay};
+    }
+
+    // --- Reading ---
+
+    /**
+     * Opens an archive file. Only the account table and the block index are read.
+     */
+    public static TransactionArchive open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer tail = ByteBuffer.allocate(Long.BYTES);
+            readFully(channel, tail, fileSize - Long.BYTES);
+            long indexOffset = tail.getLong(0);
+            if (indexOffset < 0 || indexOffset > fileSize - Long.BYTES) {
+                throw new IOException("Not a transaction archive: " + file);
+            }
+
+            // The header ends before the first block, so read it together with the index
+            ByteSource index = new ByteSource(read(channel, indexOffset, (int) (fileSize - Long.BYTES - indexOffset)));
+            int blockCount = (int) index.getVarLong();
+            long headerLength = blockCount > 0 ? index.peekVarLong() : indexOffset;
+            ByteSource header = new ByteSource(read(channel, 0, (int) headerLength));
+            if (header.length < Integer.BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a transaction archive: " + file);
+            }
+            String[] accountNames = new String[(int) header.getVarLong()];
+            for (int i = 0; i < accountNames.length; i++) {
+                accountNames[i] = header.getString();
+            }
+
+            TransactionArchive archive = new TransactionArchive(file, accountNames, blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                archive.blockOffsets[b] = index.getVarLong();
+                archive.blockLengths[b] = (int) index.getVarLong();
+                archive.blockCounts[b] = (int) index.getVarLong();
+                archive.blockFirstSequences[b] = index.getVarLong();
+                archive.blockMinDays[b] = index.getZigZag();
+                archive.blockMaxDays[b] = index.getZigZag();
+            }
+            return archive;
+        }
+    }
+
+    public int getTransactionCount() {
+        int count = 0;
+        for (int b = 0; b < blockCount; b++) {
+            count += blockCounts[b];
+        }
+        return count;
+    }
+
+    /**
+     * Reads every transaction back, in sequence order.
+     * @param engine The engine whose Chart of Accounts the transactions refer to.
+     */
+    public List<Transaction> read(AccountingEngine engine) throws IOException {
+        List<Transaction> result = new ArrayList<>(getTransactionCount());
+        scan(engine, null, null, result::add);
+        return result;
+    }
+
+    /**
+     * Reads the transactions dated between from and to (inclusive), in sequence order.
+     */
+    public List<Transaction> read(AccountingEngine engine, LocalDate from, LocalDate to) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        scan(engine, from, to, result::add);
+        return result;
+    }
+
+    /**
+     * Reads the transactions with sequences between fromSequence and toSequence (inclusive),
+     * in sequence order. Only the blocks that can hold them are read.
+     */
+    public List<Transaction> readSequences(AccountingEngine engine, long fromSequence, long toSequence) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        scan(engine, Long.MIN_VALUE, Long.MAX_VALUE, fromSequence, toSequence, result::add);
+        return result;
+    }
+
+    /**
+     * Hands each transaction dated between from and to (inclusive) to the consumer, in
+     * sequence order. Blocks whose dates all fall outside the range are not read.
+     * @param from The first date, or null for no lower bound.
+     * @param to The last date, or null for no upper bound.
+     */
+    public void scan(AccountingEngine engine, LocalDate from, LocalDate to, Consumer<Transaction> consumer) throws IOException {
+        scan(engine, from != null ? from.toEpochDay() : Long.MIN_VALUE, to != null ? to.toEpochDay() : Long.MAX_VALUE,
+                0, Long.MAX_VALUE, consumer);
+    }
+
+    private void scan(AccountingEngine engine, long fromDay, long toDay, long fromSequence, long toSequence,
+                      Consumer<Transaction> consumer) throws IOException {
+        Account[] accounts = new Account[accountNames.length];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = engine.findAccount(accountNames[i]);
+            if (accounts[i] == null) {
+                throw new IOException("The archive refers to an unknown account: " + accountNames[i]);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteSource block = new ByteSource(new byte[0]);
+            for (int b = 0; b < blockCount; b++) {
+                if (blockMaxDays[b] < fromDay || blockMinDays[b] > toDay) {
+                    continue;
+                }
+                // Sequences rise through the file, so a block ends before the next one starts
+                if (blockFirstSequences[b] > toSequence || (b + 1 < blockCount && blockFirstSequences[b + 1] <= fromSequence)) {
+                    continue;
+                }
+                block.reset(readInto(channel, blockOffsets[b], blockLengths[b], block.bytes), blockLengths[b]);
+                decodeBlock(block, b, accounts, fromDay, toDay, fromSequence, toSequence, consumer);
+            }
+        }
+    }
+
+    private void decodeBlock(ByteSource block, int b, Account[] accounts, long fromDay, long toDay,
+                             long fromSequence, long toSequence, Consumer<Transaction> consumer) {
+        String[] descriptions = new String[(int) block.getVarLong()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = block.getString();
+        }
+
+        long sequence = blockFirstSequences[b] - 1;
+        long day = 0;
+        LocalDate date = null;
+        for (int i = 0; i < blockCounts[b]; i++) {
+            sequence += block.getVarLong() + 1;
+            long delta = block.getZigZag();
+            if (date == null || delta != 0) {
+                day += delta;
+                date = LocalDate.ofEpochDay(day); // Shared by consecutive postings of the same day
+            }
+            int flags = block.getByte();
+            Account debit = accounts[(int) block.getVarLong()];
+            Account credit = accounts[(int) block.getVarLong()];
+            String description = descriptions[(int) block.getVarLong()];
+            BigDecimal amount = block.getDecimal((flags & FLAG_BIG_AMOUNT) != 0);
+            Currency currency = null;
+            BigDecimal originalAmount = null;
+            if ((flags & FLAG_FOREIGN) != 0) {
+                currency = Currency.getInstance(block.getString());
+                originalAmount = block.getDecimal((flags & FLAG_BIG_ORIGINAL_AMOUNT) != 0);
+            }
+            if (day < fromDay || day > toDay || sequence < fromSequence || sequence > toSequence) {
+                continue;
+            }
+
+            Transaction tx = new Transaction(sequence, date, description, debit, credit, amount);
+            tx.setClosingEntry((flags & FLAG_CLOSING) != 0);
+            if (currency != null) {
+                tx.setOriginalAmount(currency, originalAmount);
+            }
+            consumer.accept(tx);
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        return readInto(channel, position, length, new byte[length]);
+    }
+
+    private static byte[] readInto(FileChannel channel, long position, int length, byte[] bytes) throws IOException {
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        readFully(channel, ByteBuffer.wrap(bytes, 0, length), position);
+        return bytes;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of archive.");
+            }
+            position += n;
+        }
+    }
+
+    // --- Encoding Helpers ---
+
+    /**
+     * A growable byte buffer with varint writers.
+     */
+    private static class ByteSink {
+        private byte[] bytes;
+        private int size;
+
+        ByteSink(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+
+        void putByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void putLong(long value) {
+            ensure(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putZigZag(long value) {
+            putVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void putBytes(byte[] data) {
+            putVarLong(data.length);
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        void putString(String s) {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putDecimal(BigDecimal value, boolean big) {
+            putZigZag(value.scale());
+            if (big) {
+                putBytes(value.unscaledValue().toByteArray());
+            } else {
+                putZigZag(value.unscaledValue().longValue());
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+    }
+
+    /**
+     * Varint readers over a byte array. Decodes straight from the array, without
+     * per-byte stream calls, which is what keeps the scan fast.
+     */
+    private static class ByteSource {
+        private byte[] bytes;
+        private int length;
+        private int position;
+
+        ByteSource(byte[] bytes) {
+            reset(bytes, bytes.length);
+        }
+
+        void reset(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+            this.position = 0;
+        }
+
+        int getByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        int getInt() {
+            int value = 0;
+            for (int i = 0; i < Integer.BYTES; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        long getVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        long peekVarLong() {
+            int mark = position;
+            long value = getVarLong();
+            position = mark;
+            return value;
+        }
+
+        long getZigZag() {
+            long value = getVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String getString() {
+            int n = (int) getVarLong();
+            String s = new String(bytes, position, n, StandardCharsets.UTF_8);
+            position += n;
+            return s;
+        }
+
+        BigDecimal getDecimal(boolean big) {
+            int scale = (int) getZigZag();
+            if (big) {
+                int n = (int) getVarLong();
+                BigInteger unscaled = new BigInteger(Arrays.copyOfRange(bytes, position, position + n));
+                position += n;
+                return new BigDecimal(unscaled, scale);
+            }
+            return BigDecimal.valueOf(getZigZag(), scale);
+        }
+    }
+}
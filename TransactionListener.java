@@ -0,0 +1,16 @@
+package accounting;
+
+/**
+ * Callback interface for anything that needs to observe committed postings
+ * (replication, reports, alerts, ...).
+ * Listeners are called on the posting thread, right after balances are updated.
+ */
+public interface TransactionListener {
+
+    /**
+     * Called once for every transaction committed to the engine.
+     * @param transaction The transaction that was just posted.
+     */
+    void transactionPosted(Transaction transaction);
+}
+
@@ -0,0 +1,29 @@
+#!/bin/sh
+# Launches the application with an AppCDS (class-data sharing) archive, which
+# cuts JVM startup by loading pre-parsed classes from a memory-mapped file.
+#
+# Whenever a source file is newer than the last build, the classes are rebuilt
+# from scratch and the archive is thrown away. A training run then starts the app,
+# waits for the initial load, exits and dumps a new archive. Later runs reuse it.
+#
+# Usage: ./appcds.sh [MainApp arguments...]   (requires JDK 13+)
+
+cd "$(dirname "$0")" || exit 1
+CLASSES=out
+ARCHIVE=accounting.jsa
+STAMP="$CLASSES/.built"
+
+# A clean rebuild, so classes of deleted sources don't linger; the archive only
+# matches the classes it was dumped from.
+if [ ! -f "$STAMP" ] || [ -n "$(find . -maxdepth 1 -name '*.java' -newer "$STAMP")" ]; then
+    rm -rf "$CLASSES" "$ARCHIVE"
+    javac -encoding UTF-8 -d "$CLASSES" *.java || exit 1
+    touch "$STAMP"
+fi
+
+if [ ! -f "$ARCHIVE" ]; then
+    java -XX:ArchiveClassesAtExit="$ARCHIVE" -Daccounting.exitAfterStartup=true \
+        -cp "$CLASSES" accounting.MainApp || exit 1
+fi
+
+exec java -XX:SharedArchiveFile="$ARCHIVE" -cp "$CLASSES" accounting.MainApp "$@"
@@ -0,0 +1,392 @@
+package accounting;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Self-check of the engine's derived data against the postings themselves.
+ * <p>
+ * Builds a book of random postings (back-dated ones, reversals and foreign-currency
+ * entries included), then checks that Merkle proofs round-trip and catch tampering,
+ * that an archive reads back exactly what was written, that the period cube agrees
+ * with a scan of each account's postings, and that period proofs still hold after a
+ * period close. Prints one line per check and exits with status 1 if any failed.
+ * <p>
+ * A development tool, kept in tools/ so it is not part of the application build.
+ * Build and run it with the application classes:
+ * <pre>
+ *   javac -encoding UTF-8 -d out *.java tools/*.java
+ *   java -cp out accounting.IntegrityCheck [--option=value ...]
+ * </pre>
+ * Options:
+ * <pre>
+ *   --postings=N           how many postings to make (default 200000)
+ *   --days=N               how many days they are spread over (default 365)
+ *   --proofs=N             how many random proofs of each kind to check (default 1000)
+ *   --seed=N               random seed (default 42)
+ * </pre>
+ */
+public class IntegrityCheck {
+
+    private static final Currency USD = Currency.getInstance("USD");
+
+    private final CommandLineOptions options;
+    private final Random random;
+    private final AccountingEngine engine;
+    private final LocalDate firstDay;
+    private final Map<Long, byte[]> earlierRoots = new HashMap<>();
+    private int failures;
+
+    public IntegrityCheck(CommandLineOptions options) {
+        this.options = options;
+        this.random = new Random(options.getLong("seed", 42));
+        this.engine = new AccountingEngine();
+        this.firstDay = LocalDate.of(2024, 1, 1);
+    }
+
+    /**
+     * Runs every check and prints the results.
+     * @return True if all of them passed.
+     */
+    public boolean run() throws IOException {
+        long start = System.nanoTime();
+        post();
+        System.out.printf("Posted %d postings in %.1f s%n", engine.getTransactionCount(), (System.nanoTime() - start) / 1e9);
+
+        checkMerkleProofs();
+        checkArchiveRoundTrip();
+        checkCubeAgainstScan();
+        checkPeriodClose();
+
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) FAILED.");
+        return failures == 0;
+    }
+
+    /**
+     * Posts mostly in date order, with some back-dated postings, reversals and USD entries,
+     * and remembers the Merkle root at a few sizes along the way.
+     */
+    private void post() {
+        long postings = options.getLong("postings", 200_000);
+        long days = options.getLong("days", 365);
+        List<Account> accounts = new ArrayList<>();
+        for (Account account : engine.getChartOfAccounts()) {
+            if (!account.isForeignCurrency()) {
+                accounts.add(account);
+            }
+        }
+        Account usdCash = engine.findAccount("Cash - USD");
+        Account sales = engine.findAccount("Sales Revenue");
+        for (long day = 0; day < days; day++) {
+            engine.getExchangeRates().setRate(USD, firstDay.plusDays(day), BigDecimal.valueOf(5500 + random.nextInt(200), 2));
+        }
+
+        for (long i = 0; i < postings; i++) {
+            LocalDate date = firstDay.plusDays(i * days / postings);
+            if (random.nextInt(20) == 0) {
+                date = date.minusDays(random.nextInt(30));
+                date = date.isBefore(firstDay) ? firstDay : date;
+            }
+            int kind = random.nextInt(100);
+            if (kind == 0 && engine.getTransactionCount() > 0) {
+                Transaction original = engine.findTransaction((long) (random.nextDouble() * engine.getTransactionCount()));
+                if (original != null && !original.isReversed() && original.getReversalOf() == null) {
+                    engine.reverseTransaction(original, date);
+                    continue;
+                }
+            }
+            if (kind < 5) {
+                engine.addTransaction(date, "Export sale " + random.nextInt(50), usdCash, sales, USD,
+                        BigDecimal.valueOf(1 + random.nextInt(1_000_000), 2));
+            } else {
+                Account debit = accounts.get(random.nextInt(accounts.size()));
+                Account credit;
+                do {
+                    credit = accounts.get(random.nextInt(accounts.size()));
+                } while (credit == debit);
+                engine.addTransaction(date, "Item " + random.nextInt(500), debit, credit,
+                        BigDecimal.valueOf(1 + random.nextInt(10_000_000), 2));
+            }
+            if (random.nextInt(5000) == 0) {
+                earlierRoots.put(engine.getMerkleLog().size(), engine.getMerkleLog().getRoot());
+            }
+        }
+    }
+
+    private void checkMerkleProofs() {
+        MerkleLog log = engine.getMerkleLog();
+        long size = log.size();
+        byte[] root = log.getRoot();
+        long proofs = options.getLong("proofs", 1000);
+
+        int mismatches = 0;
+        for (Map.Entry<Long, byte[]> earlier : earlierRoots.entrySet()) {
+            if (!Arrays.equals(earlier.getValue(), log.getRoot(earlier.getKey()))) {
+                mismatches++;
+            }
+        }
+        check("Earlier roots recomputed", mismatches == 0, earlierRoots.size() + " roots, " + mismatches + " mismatched");
+
+        int failed = 0;
+        int longest = 0;
+        for (long i = 0; i < proofs; i++) {
+            long from = (long) (random.nextDouble() * size);
+            long to = Math.min(size, from + 1 + (i % 2 == 0 ? 0 : random.nextInt(300)));
+            long treeSize = to + (long) (random.nextDouble() * (size - to + 1));
+            List<Transaction> run = new ArrayList<>();
+            for (long sequence = from; sequence < to; sequence++) {
+                run.add(engine.findTransaction(sequence));
+            }
+            List<byte[]> proof = log.proveRange(from, to, treeSize);
+            longest = Math.max(longest, proof.size());
+            if (!MerkleLog.verifyRange(run, treeSize, proof, log.getRoot(treeSize))) {
+                failed++;
+            }
+        }
+        check("Range proofs verify", failed == 0, proofs + " proofs of up to " + longest + " nodes, " + failed + " failed");
+
+        int missed = 0;
+        for (long i = 0; i < proofs; i++) {
+            Transaction tx = engine.findTransaction((long) (random.nextDouble() * size));
+            Transaction altered = new Transaction(tx.getSequence(), tx.getDate(), tx.getDescription(),
+                    tx.getDebitAccount(), tx.getCreditAccount(), tx.getAmount().add(new BigDecimal("0.01")));
+            if (tx.isForeignCurrency()) {
+                altered.setOriginalAmount(tx.getCurrency(), tx.getOriginalAmount());
+            }
+            if (log.verify(Collections.singletonList(altered), size, root)) {
+                missed++;
+            }
+        }
+        check("Altered postings rejected", missed == 0, proofs + " altered, " + missed + " accepted");
+
+        failed = 0;
+        missed = 0;
+        int named = 0;
+        int tampered = 0;
+        for (long i = 0; i < proofs; i++) {
+            LocalDate from = firstDay.plusDays(random.nextInt((int) options.getLong("days", 365) + 10) - 5);
+            LocalDate to = from.plusDays(random.nextInt(i % 10 == 0 ? 60 : 3));
+            long treeSize = 1 + (long) (random.nextDouble() * size);
+            byte[] trustedRoot = log.getRoot(treeSize);
+            MerkleLog.PeriodProof proof = log.provePeriod(from, to, treeSize);
+            List<Transaction> postings = new ArrayList<>();
+            for (long sequence : proof.getSequences()) {
+                postings.add(engine.findTransaction(sequence));
+            }
+            named += postings.size();
+            if (!MerkleLog.verifyPeriod(from, to, postings, treeSize, proof.getNodes(), trustedRoot)) {
+                failed++;
+            }
+            // Leaving out a posting of the period, or moving it out of the period, must be caught
+            for (int k = 0; k < postings.size(); k++) {
+                Transaction tx = postings.get(k);
+                if (tx.getDate().isBefore(from) || tx.getDate().isAfter(to)) {
+                    continue;
+                }
+                List<Transaction> dropped = new ArrayList<>(postings);
+                dropped.remove(k);
+                List<Transaction> redated = new ArrayList<>(postings);
+                Transaction moved = new Transaction(tx.getSequence(), to.plusDays(1), tx.getDescription(),
+                        tx.getDebitAccount(), tx.getCreditAccount(), tx.getAmount());
+                if (tx.isForeignCurrency()) {
+                    moved.setOriginalAmount(tx.getCurrency(), tx.getOriginalAmount());
+                }
+                redated.set(k, moved);
+                tampered++;
+                if (MerkleLog.verifyPeriod(from, to, dropped, treeSize, proof.getNodes(), trustedRoot)
+                        || MerkleLog.verifyPeriod(from, to, redated, treeSize, proof.getNodes(), trustedRoot)) {
+                    missed++;
+                }
+                break;
+            }
+        }
+        check("Period proofs verify", failed == 0, proofs + " periods, " + named + " postings named, " + failed + " failed");
+        check("Missing or redated postings caught", missed == 0, tampered + " periods tampered, " + missed + " accepted");
+    }
+
+    /**
+     * Writes every posting to an archive and reads it back whole, by date range and by sequence range.
+     */
+    private void checkArchiveRoundTrip() throws IOException {
+        List<Transaction> transactions = new ArrayList<>(engine.getTransactions());
+        long proofs = options.getLong("proofs", 1000);
+        Path file = Files.createTempFile("integrity-check", ".archive");
+        try {
+            TransactionArchive.write(file, transactions);
+            TransactionArchive archive = TransactionArchive.open(file);
+            List<Transaction> readBack = archive.read(engine);
+            int different = readBack.size() == transactions.size() ? 0 : 1;
+            for (int i = 0; different == 0 && i < readBack.size(); i++) {
+                if (!isSame(transactions.get(i), readBack.get(i))) {
+                    different++;
+                }
+            }
+            check("Archive reads back every field", different == 0,
+                    transactions.size() + " postings in " + Files.size(file) / 1024 + " KB");
+
+            int wrong = 0;
+            for (long i = 0; i < proofs / 10; i++) {
+                LocalDate from = firstDay.plusDays(random.nextInt((int) options.getLong("days", 365)));
+                LocalDate to = from.plusDays(random.nextInt(i % 2 == 0 ? 3 : 60));
+                List<Transaction> expected = new ArrayList<>();
+                for (Transaction tx : transactions) {
+                    if (!tx.getDate().isBefore(from) && !tx.getDate().isAfter(to)) {
+                        expected.add(tx);
+                    }
+                }
+                if (!isSame(expected, archive.read(engine, from, to))) {
+                    wrong++;
+                }
+            }
+            check("Archive date-range reads", wrong == 0, proofs / 10 + " ranges, " + wrong + " wrong");
+
+            wrong = 0;
+            for (long i = 0; i < proofs / 10; i++) {
+                int from = random.nextInt(transactions.size());
+                int to = Math.min(transactions.size() - 1, from + random.nextInt(i % 2 == 0 ? 10 : 20_000));
+                if (!isSame(transactions.subList(from, to + 1), archive.readSequences(engine, from, to))) {
+                    wrong++;
+                }
+            }
+            check("Archive sequence-range reads", wrong == 0, proofs / 10 + " ranges, " + wrong + " wrong");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static boolean isSame(List<Transaction> expected, List<Transaction> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!isSame(expected.get(i), actual.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares everything an archive keeps, including the scale of the amounts.
+     */
+    private static boolean isSame(Transaction expected, Transaction actual) {
+        return expected.getSequence() == actual.getSequence()
+                && expected.getDate().equals(actual.getDate())
+                && expected.getDescription().equals(actual.getDescription())
+                && expected.getDebitAccount().equals(actual.getDebitAccount())
+                && expected.getCreditAccount().equals(actual.getCreditAccount())
+                && expected.getAmount().equals(actual.getAmount())
+                && expected.isClosingEntry() == actual.isClosingEntry()
+                && Objects.equals(expected.getCurrency(), actual.getCurrency())
+                && Objects.equals(expected.getOriginalAmount(), actual.getOriginalAmount());
+    }
+
+    /**
+     * Compares the period cube's totals with sums over each account's postings.
+     */
+    private void checkCubeAgainstScan() {
+        PeriodCube cube = engine.getPeriodCube();
+        List<Account> accounts = engine.getChartOfAccounts();
+        Map<Account, List<Transaction>> postings = new HashMap<>();
+        for (Account account : accounts) {
+            postings.put(account, engine.getTransactionsForAccount(account));
+        }
+        long proofs = options.getLong("proofs", 1000);
+        int wrong = 0;
+        for (long i = 0; i < proofs; i++) {
+            Account account = accounts.get(random.nextInt(accounts.size()));
+            LocalDate from = firstDay.plusDays(random.nextInt((int) options.getLong("days", 365) + 10) - 5);
+            LocalDate to = from.plusDays(random.nextInt(i % 4 == 0 ? 400 : 45));
+            BigDecimal debit = BigDecimal.ZERO;
+            BigDecimal credit = BigDecimal.ZERO;
+            for (Transaction tx : postings.get(account)) {
+                if (tx.getDate().isBefore(from) || tx.getDate().isAfter(to)) {
+                    continue;
+                }
+                if (tx.getDebitAccount().equals(account)) {
+                    debit = debit.add(tx.getAmount());
+                }
+                if (tx.getCreditAccount().equals(account)) {
+                    credit = credit.add(tx.getAmount());
+                }
+            }
+            PeriodCube.Totals totals = cube.getTotals(account, from, to);
+            BigDecimal netChange = account.signedAmount(debit, true).add(account.signedAmount(credit, false));
+            if (totals.getDebit().compareTo(debit) != 0 || totals.getCredit().compareTo(credit) != 0
+                    || cube.getNetChange(account, from, to).compareTo(netChange) != 0) {
+                wrong++;
+            }
+        }
+        check("Period cube agrees with a scan", wrong == 0, proofs + " account periods, " + wrong + " wrong");
+    }
+
+    /**
+     * Closes the first quarter and checks it against the root taken just before, then
+     * tampers with its archive.
+     */
+    private void checkPeriodClose() throws IOException {
+        MerkleLog log = engine.getMerkleLog();
+        long size = log.size();
+        byte[] root = log.getRoot();
+        LocalDate quarterEnd = firstDay.plusMonths(3).minusDays(1);
+        Path file = Files.createTempFile("integrity-check", ".archive");
+        try {
+            ArchivedPeriod period = engine.closePeriod(quarterEnd, engine.findAccount("Owner's Capital"), file);
+            check("Closed period verifies against the earlier root", engine.verifyPeriod(firstDay, quarterEnd, size, root),
+                    period.getTransactionCount() + " archived postings");
+            check("Closed period verifies against the current root",
+                    engine.verifyPeriod(firstDay, quarterEnd, log.size(), log.getRoot()), "");
+
+            List<Transaction> archived = period.getTransactions(engine);
+            List<Transaction> withoutFirst = new ArrayList<>(archived);
+            withoutFirst.remove(0);
+            TransactionArchive.write(file, withoutFirst);
+            boolean firstCaught = !engine.verifyPeriod(firstDay, quarterEnd, size, root);
+            List<Transaction> withoutLast = new ArrayList<>(archived);
+            withoutLast.removeIf(tx -> tx.getSequence() == lastBelow(archived, size));
+            TransactionArchive.write(file, withoutLast);
+            boolean lastCaught = !engine.verifyPeriod(firstDay, quarterEnd, size, root);
+            TransactionArchive.write(file, archived);
+            check("Postings deleted from the archive caught", firstCaught && lastCaught,
+                    "first " + (firstCaught ? "caught" : "MISSED") + ", last " + (lastCaught ? "caught" : "MISSED"));
+            check("Restored archive verifies again", engine.verifyPeriod(firstDay, quarterEnd, size, root), "");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long lastBelow(List<Transaction> transactions, long size) {
+        long last = -1;
+        for (Transaction tx : transactions) {
+            if (tx.getSequence() < size) {
+                last = Math.max(last, tx.getSequence());
+            }
+        }
+        return last;
+    }
+
+    private void check(String name, boolean passed, String detail) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("%-4s %-50s %s%n", passed ? "ok" : "FAIL", name, detail);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!new IntegrityCheck(CommandLineOptions.parse(args)).run()) {
+            System.exit(1);
+        }
+    }
+}